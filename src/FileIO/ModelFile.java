@@ -0,0 +1,221 @@
+/* Copyright (C) 2019 Chang Wei Tan, Francois Petitjean, Geoff Webb
+ This file is part of Varying length TSC.
+ Varying length TSC is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, version 3 of the License.
+ Varying length TSC is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with Varying length TSC.  If not, see <http://www.gnu.org/licenses/>. */
+package FileIO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * This is a class for the binary files of trained models.
+ * <p>
+ * Layout, little-endian: magic, version, the payload written by the model, and a CRC32 of everything before it.
+ * Files are written through a temporary file so that readers never see a partial file, and are read with a
+ * memory map. The payload is made of primitive values and arrays, see putInts/getInts and putDoubles/getDoubles.
+ *
+ * @author Chang Wei
+ */
+public class ModelFile {
+    private static final int HEADER_BYTES = 4 + 4;
+    private static final int CRC_BYTES = 8;
+
+    /**
+     * @param payloadBytes size of the payload
+     * @param magic        magic number of the model
+     * @param version      version of the layout of the payload
+     * @return buffer with the header written, to put the payload into and then pass to write
+     */
+    public static ByteBuffer allocate(final long payloadBytes, final int magic, final int version) throws IOException {
+        final long size = HEADER_BYTES + payloadBytes + CRC_BYTES;
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("Model too large for a binary file: " + size + " bytes");
+
+        final ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(magic).putInt(version);
+        return buffer;
+    }
+
+    /**
+     * Write a buffer from allocate, once the whole payload has been put into it
+     */
+    public static void write(final File file, final ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() != CRC_BYTES)
+            throw new IOException("Payload of " + file + " does not match its size, " + (buffer.remaining() - CRC_BYTES) + " bytes left");
+
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putLong(crc.getValue());
+        buffer.flip();
+
+        final Path target = file.toPath().toAbsolutePath();
+        Files.createDirectories(target.getParent());
+        final Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Map a model file and check its header and checksum
+     *
+     * @param file    model file
+     * @param magic   expected magic number
+     * @param version expected version
+     * @return buffer positioned at the start of the payload, with its limit at the end of the payload
+     */
+    public static ByteBuffer read(final File file, final int magic, final int version) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < HEADER_BYTES + CRC_BYTES || size > Integer.MAX_VALUE)
+                throw new IOException("Not a model file: " + file);
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (buffer.getInt() != magic)
+                throw new IOException("Not a model file of this type: " + file);
+            final int fileVersion = buffer.getInt();
+            if (fileVersion != version)
+                throw new IOException("Unsupported version " + fileVersion + " of " + file + ", expected " + version);
+
+            final CRC32 crc = new CRC32();
+            final ByteBuffer content = buffer.duplicate();
+            content.position(0).limit((int) size - CRC_BYTES);
+            crc.update(content);
+            if (buffer.getLong((int) size - CRC_BYTES) != crc.getValue())
+                throw new IOException("Corrupted model file: " + file);
+
+            buffer.limit((int) size - CRC_BYTES);
+            return buffer;
+        }
+    }
+
+    /**
+     * Put the length of the array, then its values
+     */
+    public static void putInts(final ByteBuffer buffer, final int[] values) {
+        buffer.putInt(values.length);
+        buffer.asIntBuffer().put(values);
+        buffer.position(buffer.position() + 4 * values.length);
+    }
+
+    public static int[] getInts(final ByteBuffer buffer) throws IOException {
+        final int[] values = new int[checkedLength(buffer, 4)];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + 4 * values.length);
+        return values;
+    }
+
+    /**
+     * Put the length of the array, then its values
+     */
+    public static void putDoubles(final ByteBuffer buffer, final double[] values) {
+        buffer.putInt(values.length);
+        buffer.asDoubleBuffer().put(values);
+        buffer.position(buffer.position() + 8 * values.length);
+    }
+
+    public static double[] getDoubles(final ByteBuffer buffer) throws IOException {
+        final double[] values = new double[checkedLength(buffer, 8)];
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + 8 * values.length);
+        return values;
+    }
+
+    /**
+     * Put the length of the array, then its values
+     */
+    public static void putFloats(final ByteBuffer buffer, final float[] values) {
+        buffer.putInt(values.length);
+        buffer.asFloatBuffer().put(values);
+        buffer.position(buffer.position() + 4 * values.length);
+    }
+
+    public static float[] getFloats(final ByteBuffer buffer) throws IOException {
+        final float[] values = new float[checkedLength(buffer, 4)];
+        buffer.asFloatBuffer().get(values);
+        buffer.position(buffer.position() + 4 * values.length);
+        return values;
+    }
+
+    /**
+     * Put a string as the length of its UTF-8 bytes, then the bytes, or a length of -1 for null
+     */
+    public static void putString(final ByteBuffer buffer, final String value) {
+        if (value == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    public static String getString(final ByteBuffer buffer) throws IOException {
+        if (buffer.getInt(buffer.position()) == -1) {
+            buffer.getInt();
+            return null;
+        }
+        final byte[] bytes = new byte[checkedLength(buffer, 1)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return bytes taken by an array written with putInts
+     */
+    public static long intsBytes(final int[] values) {
+        return 4 + 4L * values.length;
+    }
+
+    /**
+     * @return bytes taken by an array written with putDoubles
+     */
+    public static long doublesBytes(final double[] values) {
+        return 4 + 8L * values.length;
+    }
+
+    /**
+     * @return bytes taken by an array written with putFloats
+     */
+    public static long floatsBytes(final float[] values) {
+        return 4 + 4L * values.length;
+    }
+
+    /**
+     * @return bytes taken by a string written with putString
+     */
+    public static long stringBytes(final String value) {
+        return 4 + (value == null ? 0 : value.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    private static int checkedLength(final ByteBuffer buffer, final int bytesPerValue) throws IOException {
+        final int length = buffer.getInt();
+        if (length < 0 || (long) length * bytesPerValue > buffer.remaining())
+            throw new IOException("Invalid array length in model file: " + length);
+        return length;
+    }
+}
@@ -26,6 +26,10 @@ public class OutFile {
     private PrintWriter outFile;
 
     public OutFile(final String outputPath, final String name) {
+        this(outputPath, name, false);
+    }
+
+    public OutFile(final String outputPath, final String name, final boolean append) {
         String filename = outputPath + name;
         if (!outputPath.substring(outputPath.length() - 1).equals(slash))
             filename = outputPath + slash + name;
@@ -33,7 +37,7 @@ public class OutFile {
         if (!dir.exists()) dir.mkdirs();
 
         try {
-            FileWriter fw = new FileWriter(filename);
+            FileWriter fw = new FileWriter(filename, append);
             outFile = new PrintWriter(fw);
         } catch (IOException exception) {
             System.err.println(exception + " File " + name + " Not found");
@@ -45,6 +49,15 @@ public class OutFile {
         return !outFile.checkError();
     }
 
+    /**
+     * Write a line and flush it to the file straight away
+     */
+    public boolean writeLineAndFlush(String v) {
+        outFile.print(v + "\n");
+        outFile.flush();
+        return !outFile.checkError();
+    }
+
     public void closeFile() {
         outFile.close();
     }
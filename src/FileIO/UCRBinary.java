@@ -0,0 +1,183 @@
+/* Copyright (C) 2019 Chang Wei Tan, Francois Petitjean, Geoff Webb
+ This file is part of Varying length TSC.
+ Varying length TSC is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, version 3 of the License.
+ Varying length TSC is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with Varying length TSC.  If not, see <http://www.gnu.org/licenses/>. */
+package FileIO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * This is a class to store the content of a UCR file in a binary columnar file next to it,
+ * so that later loads map the file instead of parsing the text again.
+ * <p>
+ * Layout, little-endian:
+ * magic, version, size and last modified time of the source file, number of rows, number of cells,
+ * number of extra bytes, then the labels, the row offsets, the cells, the extra bytes,
+ * and a CRC32 of everything before it.
+ * A file whose source has changed, or whose checksum does not match, is stale and ignored.
+ *
+ * @author Chang Wei
+ */
+public class UCRBinary {
+    public static final String EXTENSION = ".bin";
+    private static final int MAGIC = 0x56544331;  // "VTC1"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 4 + 4 + 4;
+
+    public static File binaryFile(final String filename) {
+        return new File(filename + EXTENSION);
+    }
+
+    /**
+     * Content of a binary file: the table and the extra bytes stored with it
+     */
+    public static class Contents {
+        public final UCRTable table;
+        public final byte[] extra;
+
+        Contents(final UCRTable table, final byte[] extra) {
+            this.table = table;
+            this.extra = extra;
+        }
+    }
+
+    /**
+     * Load the binary copy of a UCR file
+     *
+     * @param filename UCR file
+     * @return content of the file, or null if there is no binary copy or it is stale
+     */
+    public static UCRTable load(final String filename) throws IOException {
+        final File source = new File(filename);
+        final Contents contents = read(binaryFile(filename), source.length(), source.lastModified());
+        return contents == null ? null : contents.table;
+    }
+
+    /**
+     * Write the binary copy of a UCR file
+     *
+     * @param table    content of the file
+     * @param filename UCR file
+     */
+    public static void save(final UCRTable table, final String filename) throws IOException {
+        final File source = new File(filename);
+        write(binaryFile(filename), table, new byte[0], source.length(), source.lastModified());
+    }
+
+    /**
+     * Read a binary file
+     *
+     * @param binary         binary file
+     * @param sourceSize     expected size of the source file
+     * @param sourceModified expected last modified time of the source file
+     * @return table and extra bytes, or null if the file does not exist or is stale
+     */
+    public static Contents read(final File binary, final long sourceSize, final long sourceModified) throws IOException {
+        if (!binary.isFile() || binary.length() < HEADER_BYTES + 8)
+            return null;
+
+        try (FileChannel channel = FileChannel.open(binary.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                return null;
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+                return null;
+            if (buffer.getLong() != sourceSize || buffer.getLong() != sourceModified)
+                return null;
+            final int numRows = buffer.getInt();
+            final int numValues = buffer.getInt();
+            final int numExtra = buffer.getInt();
+            final long expected = HEADER_BYTES + 4L * numRows + 4L * (numRows + 1) + 8L * numValues + numExtra + 8;
+            if (numRows < 0 || numValues < 0 || numExtra < 0 || expected != size)
+                return null;
+
+            final CRC32 crc = new CRC32();
+            final ByteBuffer payload = buffer.duplicate();
+            payload.position(0).limit((int) size - 8);
+            crc.update(payload);
+            if (buffer.getLong((int) size - 8) != crc.getValue())
+                return null;
+
+            final int[] labels = new int[numRows];
+            final int[] offsets = new int[numRows + 1];
+            final double[] values = new double[numValues];
+            final byte[] extra = new byte[numExtra];
+            buffer.asIntBuffer().get(labels);
+            buffer.position(buffer.position() + 4 * numRows);
+            buffer.asIntBuffer().get(offsets);
+            buffer.position(buffer.position() + 4 * (numRows + 1));
+            buffer.asDoubleBuffer().get(values);
+            buffer.position(buffer.position() + 8 * numValues);
+            buffer.get(extra);
+            return new Contents(new UCRTable(values, offsets, labels), extra);
+        }
+    }
+
+    /**
+     * Write a binary file, through a temporary file so that readers never see a partial file
+     *
+     * @param binary         binary file
+     * @param table          table to store
+     * @param extra          extra bytes stored with the table
+     * @param sourceSize     size of the source file
+     * @param sourceModified last modified time of the source file
+     */
+    public static void write(final File binary, final UCRTable table, final byte[] extra,
+                             final long sourceSize, final long sourceModified) throws IOException {
+        final int numRows = table.size();
+        final int numValues = table.getValues().length;
+        final long size = HEADER_BYTES + 4L * numRows + 4L * (numRows + 1) + 8L * numValues + extra.length + 8;
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("Dataset too large for a binary file: " + binary);
+
+        final ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION)
+                .putLong(sourceSize).putLong(sourceModified)
+                .putInt(numRows).putInt(numValues).putInt(extra.length);
+        buffer.asIntBuffer().put(table.getLabels());
+        buffer.position(buffer.position() + 4 * numRows);
+        buffer.asIntBuffer().put(table.getOffsets());
+        buffer.position(buffer.position() + 4 * (numRows + 1));
+        buffer.asDoubleBuffer().put(table.getValues());
+        buffer.position(buffer.position() + 8 * numValues);
+        buffer.put(extra);
+
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putLong(crc.getValue());
+        buffer.flip();
+
+        final Path target = binary.toPath().toAbsolutePath();
+        Files.createDirectories(target.getParent());
+        final Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
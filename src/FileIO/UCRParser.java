@@ -0,0 +1,225 @@
+/* Copyright (C) 2019 Chang Wei Tan, Francois Petitjean, Geoff Webb
+ This file is part of Varying length TSC.
+ Varying length TSC is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, version 3 of the License.
+ Varying length TSC is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with Varying length TSC.  If not, see <http://www.gnu.org/licenses/>. */
+package FileIO;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * This is a class to parse UCR tsv files straight from the bytes, read in large chunks through a FileChannel.
+ * Each line is a label followed by the values of the series, separated by tabs.
+ * Numbers with at most 15 significant digits and a small exponent are converted exactly with one
+ * multiplication or division by a power of ten (Clinger's fast path), everything else goes through
+ * Integer.parseInt and Double.parseDouble, so the results are the same as parsing the Strings.
+ * Empty lines are skipped.
+ *
+ * @author Chang Wei
+ */
+public class UCRParser {
+    private static final byte TAB = '\t';
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+    // files are read in chunks of this size, the line cut by the end of a chunk is parsed with the next one
+    private static final int CHUNK_SIZE = 1 << 22;
+    private static final int MAX_FAST_DIGITS = 15;
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private double[] values = new double[1 << 16];
+    private int numValues = 0;
+    private int[] offsets = new int[1 << 10];
+    private int[] labels = new int[1 << 10];
+    private int numRows = 0;
+
+    public static UCRTable parse(final String filename) throws IOException {
+        return new UCRParser().read(filename);
+    }
+
+    private UCRTable read(final String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            byte[] bytes = new byte[CHUNK_SIZE];
+            int filled = 0;
+            while (true) {
+                final int read = channel.read(ByteBuffer.wrap(bytes, filled, bytes.length - filled));
+                final boolean endOfFile = read < 0;
+                if (read > 0) filled += read;
+
+                final int consumed = parseLines(bytes, filled, endOfFile);
+                if (endOfFile) break;
+
+                // keep the line cut by the end of the chunk, and grow the chunk for lines longer than it
+                System.arraycopy(bytes, consumed, bytes, 0, filled - consumed);
+                filled -= consumed;
+                if (filled == bytes.length)
+                    bytes = Arrays.copyOf(bytes, 2 * bytes.length);
+            }
+        }
+        offsets[numRows] = numValues;
+        return new UCRTable(Arrays.copyOf(values, numValues),
+                Arrays.copyOf(offsets, numRows + 1),
+                Arrays.copyOf(labels, numRows));
+    }
+
+    /**
+     * Parse the complete lines of a chunk
+     *
+     * @return number of bytes consumed
+     */
+    private int parseLines(final byte[] bytes, final int limit, final boolean endOfFile) {
+        int lineStart = 0;
+        while (lineStart < limit) {
+            int lineEnd = lineStart;
+            while (lineEnd < limit && bytes[lineEnd] != LF)
+                lineEnd++;
+            if (lineEnd == limit && !endOfFile)
+                break;
+            parseLine(bytes, lineStart, lineEnd);
+            lineStart = lineEnd + 1;
+        }
+        return Math.min(lineStart, limit);
+    }
+
+    private void parseLine(final byte[] buffer, final int start, int end) {
+        if (end > start && buffer[end - 1] == CR)
+            end--;
+        // trailing empty cells are dropped, like String.split does
+        while (end > start && buffer[end - 1] == TAB)
+            end--;
+        if (end == start)
+            return;
+
+        int tokenEnd = nextTab(buffer, start, end);
+        ensureRowCapacity(numRows + 2);
+        offsets[numRows] = numValues;
+        labels[numRows] = parseInt(buffer, start, tokenEnd);
+        while (tokenEnd < end) {
+            final int tokenStart = tokenEnd + 1;
+            tokenEnd = nextTab(buffer, tokenStart, end);
+            if (numValues == values.length)
+                values = Arrays.copyOf(values, 2 * values.length);
+            values[numValues++] = parseDouble(buffer, tokenStart, tokenEnd);
+        }
+        numRows++;
+    }
+
+    private static int nextTab(final byte[] buffer, int i, final int end) {
+        while (i < end && buffer[i] != TAB)
+            i++;
+        return i;
+    }
+
+    private void ensureRowCapacity(final int capacity) {
+        if (capacity > offsets.length) {
+            offsets = Arrays.copyOf(offsets, Math.max(capacity, 2 * offsets.length));
+            labels = Arrays.copyOf(labels, offsets.length);
+        }
+    }
+
+    private static int parseInt(final byte[] buffer, final int start, final int end) {
+        int i = start;
+        final boolean negative = i < end && buffer[i] == '-';
+        if (negative) i++;
+        if (i == end || end - i > 9)
+            return Integer.parseInt(token(buffer, start, end));
+
+        int value = 0;
+        for (; i < end; i++) {
+            final int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9)
+                return Integer.parseInt(token(buffer, start, end));
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    private static double parseDouble(final byte[] buffer, final int start, final int end) {
+        if (end - start == 3 && buffer[start] == 'N' && buffer[start + 1] == 'a' && buffer[start + 2] == 'N')
+            return Double.NaN;
+
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+            negative = buffer[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean anyDigit = false;
+        for (; i < end; i++) {
+            final int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) break;
+            anyDigit = true;
+            if (mantissa == 0 && digit == 0) continue;
+            if (++digits > MAX_FAST_DIGITS) return Double.parseDouble(token(buffer, start, end));
+            mantissa = mantissa * 10 + digit;
+        }
+        if (i < end && buffer[i] == '.') {
+            for (i++; i < end; i++) {
+                final int digit = buffer[i] - '0';
+                if (digit < 0 || digit > 9) break;
+                anyDigit = true;
+                exponent--;
+                if (mantissa == 0 && digit == 0) continue;
+                if (++digits > MAX_FAST_DIGITS) return Double.parseDouble(token(buffer, start, end));
+                mantissa = mantissa * 10 + digit;
+            }
+        }
+        if (!anyDigit)
+            return Double.parseDouble(token(buffer, start, end));
+        if (i < end && (buffer[i] == 'e' || buffer[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+                negativeExponent = buffer[i] == '-';
+                i++;
+            }
+            final int expStart = i;
+            int exp = 0;
+            for (; i < end && exp < 1000; i++) {
+                final int digit = buffer[i] - '0';
+                if (digit < 0 || digit > 9) break;
+                exp = exp * 10 + digit;
+            }
+            if (i == expStart)
+                return Double.parseDouble(token(buffer, start, end));
+            exponent += negativeExponent ? -exp : exp;
+        }
+        if (i != end)
+            return Double.parseDouble(token(buffer, start, end));
+
+        double value;
+        if (mantissa == 0) {
+            value = 0;
+        } else if (exponent == 0) {
+            value = mantissa;
+        } else if (exponent > 0 && exponent < POW10.length) {
+            value = mantissa * POW10[exponent];
+        } else if (exponent < 0 && -exponent < POW10.length) {
+            value = mantissa / POW10[-exponent];
+        } else {
+            return Double.parseDouble(token(buffer, start, end));
+        }
+        return negative ? -value : value;
+    }
+
+    private static String token(final byte[] buffer, final int start, final int end) {
+        return new String(buffer, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,82 @@
+/* Copyright (C) 2019 Chang Wei Tan, Francois Petitjean, Geoff Webb
+ This file is part of Varying length TSC.
+ Varying length TSC is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, version 3 of the License.
+ Varying length TSC is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with Varying length TSC.  If not, see <http://www.gnu.org/licenses/>. */
+package FileIO;
+
+import java.util.Arrays;
+
+/**
+ * This is a class for the raw content of a UCR file: one row per series with its label,
+ * and all the cells of all the rows back to back, keeping the NaN padding of varying length series.
+ *
+ * @author Chang Wei
+ */
+public class UCRTable {
+    private final double[] values;  // cells of all the rows, NaN kept
+    private final int[] offsets;    // start of row i in values, with offsets[size] = number of cells
+    private final int[] labels;     // label of each row
+
+    public UCRTable(final double[] values, final int[] offsets, final int[] labels) {
+        this.values = values;
+        this.offsets = offsets;
+        this.labels = labels;
+    }
+
+    public final int size() {
+        return labels.length;
+    }
+
+    public final int label(final int row) {
+        return labels[row];
+    }
+
+    /**
+     * @return number of cells in the row, including the NaN padding
+     */
+    public final int width(final int row) {
+        return offsets[row + 1] - offsets[row];
+    }
+
+    public final double value(final int row, final int column) {
+        return values[offsets[row] + column];
+    }
+
+    /**
+     * @return the cells of the row up to the first NaN
+     */
+    public final double[] series(final int row) {
+        final int start = offsets[row];
+        final int end = offsets[row + 1];
+        int len = 0;
+        while (start + len < end && !Double.isNaN(values[start + len]))
+            len++;
+        return Arrays.copyOfRange(values, start, start + len);
+    }
+
+    /**
+     * @return all the cells of the row
+     */
+    public final double[] row(final int row) {
+        return Arrays.copyOfRange(values, offsets[row], offsets[row + 1]);
+    }
+
+    public final double[] getValues() {
+        return values;
+    }
+
+    public final int[] getOffsets() {
+        return offsets;
+    }
+
+    public final int[] getLabels() {
+        return labels;
+    }
+}
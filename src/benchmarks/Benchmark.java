@@ -0,0 +1,149 @@
+/* Copyright (C) 2019 Chang Wei Tan, Francois Petitjean, Geoff Webb
+ This file is part of Varying length TSC.
+ Varying length TSC is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, version 3 of the License.
+ Varying length TSC is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with Varying length TSC.  If not, see <http://www.gnu.org/licenses/>. */
+package benchmarks;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * This is a class to measure the throughput and the allocation rate of an operation.
+ * The operation is run for a number of timed warm-up iterations, then for a number of timed measurement
+ * iterations. Each iteration reports the operations per second, and the bytes allocated by the running
+ * thread, as counted by the JVM. The results of the operation are summed so that the work is not optimised away.
+ *
+ * @author Chang Wei
+ */
+public class Benchmark {
+    private final int warmupIterations;
+    private final int measurementIterations;
+    private final long iterationNanos;
+    private final com.sun.management.ThreadMXBean threadBean;
+    private double sink;
+
+    /**
+     * Operation to measure, i is the number of the call
+     */
+    public interface Operation {
+        double run(int i);
+    }
+
+    /**
+     * Result of a benchmark
+     */
+    public static class Result {
+        public final String name;
+        public final double opsPerSecond;
+        public final double opsPerSecondError;   // standard deviation over the iterations
+        public final double bytesPerOp;          // -1 if the JVM does not count allocations
+        public final double bytesPerSecond;
+
+        Result(final String name, final double opsPerSecond, final double opsPerSecondError,
+               final double bytesPerOp, final double bytesPerSecond) {
+            this.name = name;
+            this.opsPerSecond = opsPerSecond;
+            this.opsPerSecondError = opsPerSecondError;
+            this.bytesPerOp = bytesPerOp;
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-24s %14.1f +- %10.1f ops/s %12.1f B/op %10.2f MB/s",
+                    name, opsPerSecond, opsPerSecondError, bytesPerOp, bytesPerSecond / (1024 * 1024));
+        }
+    }
+
+    public Benchmark(final int warmupIterations, final int measurementIterations, final double iterationSeconds) {
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = measurementIterations;
+        this.iterationNanos = (long) (iterationSeconds * 1e9);
+
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean &&
+                ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            this.threadBean = (com.sun.management.ThreadMXBean) bean;
+            this.threadBean.setThreadAllocatedMemoryEnabled(true);
+        } else {
+            this.threadBean = null;
+        }
+    }
+
+    public Result run(final String name, final Operation operation) {
+        int calls = 0;
+        for (int it = 0; it < warmupIterations; it++) {
+            calls = iteration(operation, calls, null);
+        }
+
+        final double[] opsPerSecond = new double[measurementIterations];
+        final long[] counts = new long[3];  // operations, nanoseconds, bytes
+        long totalOps = 0, totalNanos = 0, totalBytes = 0;
+        for (int it = 0; it < measurementIterations; it++) {
+            calls = iteration(operation, calls, counts);
+            opsPerSecond[it] = counts[0] * 1e9 / counts[1];
+            totalOps += counts[0];
+            totalNanos += counts[1];
+            totalBytes += counts[2];
+        }
+
+        double mean = 0;
+        for (double v : opsPerSecond) mean += v;
+        mean /= measurementIterations;
+        double var = 0;
+        for (double v : opsPerSecond) var += (v - mean) * (v - mean);
+        final double error = measurementIterations > 1 ? Math.sqrt(var / (measurementIterations - 1)) : 0;
+
+        final double bytesPerOp = threadBean == null ? -1 : 1.0 * totalBytes / totalOps;
+        final double bytesPerSecond = threadBean == null ? -1 : totalBytes * 1e9 / totalNanos;
+        final Result result = new Result(name, mean, error, bytesPerOp, bytesPerSecond);
+        System.out.println("[BENCHMARK] " + result);
+        return result;
+    }
+
+    /**
+     * Run the operation for one iteration
+     *
+     * @return number of calls so far
+     */
+    private int iteration(final Operation operation, int calls, final long[] counts) {
+        final long threadId = Thread.currentThread().getId();
+        final long startBytes = threadBean == null ? 0 : threadBean.getThreadAllocatedBytes(threadId);
+        final long start = System.nanoTime();
+        final long end = start + iterationNanos;
+        long ops = 0;
+        long now;
+        double sum = 0;
+        do {
+            // check the clock every few calls only, the operations can be very short
+            for (int k = 0; k < 16; k++) {
+                sum += operation.run(calls++);
+                if (calls == Integer.MAX_VALUE) calls = 0;
+            }
+            ops += 16;
+            now = System.nanoTime();
+        } while (now < end);
+        final long endBytes = threadBean == null ? 0 : threadBean.getThreadAllocatedBytes(threadId);
+        sink += sum;
+
+        if (counts != null) {
+            counts[0] = ops;
+            counts[1] = now - start;
+            counts[2] = endBytes - startBytes;
+        }
+        return calls;
+    }
+
+    /**
+     * @return sum of the results of all the operations, to print so that they are not optimised away
+     */
+    public double getSink() {
+        return sink;
+    }
+}
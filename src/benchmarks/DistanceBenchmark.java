@@ -0,0 +1,209 @@
+/* Copyright (C) 2019 Chang Wei Tan, Francois Petitjean, Geoff Webb
+ This file is part of Varying length TSC.
+ Varying length TSC is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, version 3 of the License.
+ Varying length TSC is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with Varying length TSC.  If not, see <http://www.gnu.org/licenses/>. */
+package benchmarks;
+
+import classifiers.BOSS;
+import data.Sequence;
+import data.Sequences;
+import distances.*;
+import utilities.DataLoader;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This is a class to benchmark the distance measures and the BOSS transform on synthetic series.
+ * The lengths of the series are drawn from the lengths of the training set of a UCR problem when one is given,
+ * or uniformly between a minimum and a maximum length otherwise, so that the benchmark sees the same
+ * mix of lengths as the varying length problems.
+ * Each benchmark reports operations per second and bytes allocated per operation.
+ * <p>
+ * Arguments: benchmarks to run (comma separated names or "all"), number of series, minimum length,
+ * maximum length, warm-up iterations, measurement iterations, seconds per iteration,
+ * and optionally a dataset path and a problem to take the lengths from.
+ *
+ * @author Chang Wei
+ */
+public class DistanceBenchmark {
+    private static final String[] BENCHMARKS = new String[]{
+            "DTW-Full", "DTW-Window", "DTW-EarlyAbandon", "Euclidean", "SBD", "SSD", "USE", "BOSSTransform"};
+    private static final int NUM_PAIRS = 1024;
+    private static final double WINDOW_RATIO = 0.1;
+    private static final int BOSS_WORD_LENGTH = 8;
+    private static final int BOSS_ALPHABET_SIZE = 4;
+
+    private final Sequences data;
+    private final int[] firstIndex = new int[NUM_PAIRS];
+    private final int[] secondIndex = new int[NUM_PAIRS];
+
+    public static void main(String[] args) throws Exception {
+        String benchmarks = "all";
+        int numSeries = 100;
+        int minLen = 100;
+        int maxLen = 500;
+        int warmupIterations = 3;
+        int measurementIterations = 5;
+        double iterationSeconds = 1;
+        String datasetPath = null;
+        String problem = null;
+
+        if (args.length > 0) benchmarks = args[0];
+        if (args.length > 1) numSeries = Integer.parseInt(args[1]);
+        if (args.length > 2) minLen = Integer.parseInt(args[2]);
+        if (args.length > 3) maxLen = Integer.parseInt(args[3]);
+        if (args.length > 4) warmupIterations = Integer.parseInt(args[4]);
+        if (args.length > 5) measurementIterations = Integer.parseInt(args[5]);
+        if (args.length > 6) iterationSeconds = Double.parseDouble(args[6]);
+        if (args.length > 8) {
+            datasetPath = args[7];
+            problem = args[8];
+        }
+
+        final int[] lengths;
+        if (problem != null) {
+            lengths = lengthsOf(datasetPath, problem);
+            System.out.println(String.format("[BENCHMARK] Lengths from:   %s", problem));
+        } else {
+            lengths = null;
+            System.out.println(String.format("[BENCHMARK] Lengths:        %d to %d", minLen, maxLen));
+        }
+        System.out.println(String.format("[BENCHMARK] Series:         %d", numSeries));
+        System.out.println(String.format("[BENCHMARK] Iterations:     %d warm-up, %d x %.1f s",
+                warmupIterations, measurementIterations, iterationSeconds));
+
+        final DistanceBenchmark benchmark = new DistanceBenchmark(numSeries, minLen, maxLen, lengths, 42);
+        benchmark.run(benchmarks.equals("all") ? BENCHMARKS : benchmarks.split(","),
+                new Benchmark(warmupIterations, measurementIterations, iterationSeconds));
+    }
+
+    /**
+     * @param numSeries number of series to generate
+     * @param minLen    minimum length, when there are no lengths to draw from
+     * @param maxLen    maximum length, when there are no lengths to draw from
+     * @param lengths   lengths to draw from, or null
+     * @param seed      seed of the generator
+     */
+    public DistanceBenchmark(final int numSeries, final int minLen, final int maxLen, final int[] lengths, final long seed) {
+        final Random random = new Random(seed);
+        data = new Sequences("Synthetic");
+        for (int i = 0; i < numSeries; i++) {
+            final int len = lengths != null ?
+                    lengths[random.nextInt(lengths.length)] :
+                    minLen + random.nextInt(maxLen - minLen + 1);
+            data.add(new Sequence(randomWalk(len, random), i % 2));
+        }
+        for (int i = 0; i < NUM_PAIRS; i++) {
+            firstIndex[i] = random.nextInt(numSeries);
+            secondIndex[i] = random.nextInt(numSeries);
+        }
+    }
+
+    public List<Benchmark.Result> run(final String[] names, final Benchmark benchmark) throws Exception {
+        final List<Benchmark.Result> results = new ArrayList<>();
+        for (String name : names) {
+            results.add(benchmark.run(name, operation(name)));
+        }
+        System.out.println(String.format("[BENCHMARK] Sink: %s", benchmark.getSink()));
+        return results;
+    }
+
+    private Benchmark.Operation operation(final String name) throws Exception {
+        switch (name) {
+            case "DTW-Full": {
+                final DTW dtw = new DTW();
+                return i -> dtw.distance(first(i), second(i));
+            }
+            case "DTW-Window": {
+                // window relative to the longer series, and at least the difference of lengths so that there is a path
+                final DTW dtw = new DTW();
+                final int[] window = new int[NUM_PAIRS];
+                for (int p = 0; p < NUM_PAIRS; p++) {
+                    final int n = first(p).length();
+                    final int m = second(p).length();
+                    window[p] = Math.max(Math.abs(n - m), (int) Math.ceil(WINDOW_RATIO * Math.max(n, m)));
+                }
+                return i -> dtw.distance(first(i), second(i), window[i % NUM_PAIRS]);
+            }
+            case "DTW-EarlyAbandon": {
+                // cut-off at half the full distance of each pair, so that every call abandons part way
+                final DTW dtw = new DTW();
+                final double[] cutOff = new double[NUM_PAIRS];
+                for (int p = 0; p < NUM_PAIRS; p++)
+                    cutOff[p] = 0.5 * dtw.distance(first(p), second(p));
+                return i -> dtw.distance(first(i), second(i), cutOff[i % NUM_PAIRS]);
+            }
+            case "Euclidean": {
+                final Euclidean euclidean = new Euclidean();
+                return i -> euclidean.distance(first(i), second(i));
+            }
+            case "SBD": {
+                final SBD sbd = new SBD();
+                return i -> sbd.distance(first(i), second(i));
+            }
+            case "SSD": {
+                final SubsequenceDistance ssd = new SubsequenceDistance();
+                return i -> ssd.distance(first(i), second(i));
+            }
+            case "USE": {
+                final UniformScalingEuclidean use = new UniformScalingEuclidean();
+                return i -> use.distance(first(i), second(i));
+            }
+            case "BOSSTransform": {
+                // the breakpoints are learnt on series of the same length, then any length can be transformed
+                int minLen = Integer.MAX_VALUE;
+                for (int s = 0; s < data.size(); s++)
+                    minLen = Math.min(minLen, data.get(s).length());
+                final Sequences sameLength = new Sequences("Synthetic");
+                for (int s = 0; s < data.size(); s++)
+                    sameLength.add(new Sequence(Arrays.copyOf(data.get(s).getData(), minLen), data.get(s).getLabel()));
+                final int windowSize = Math.max(BOSS_WORD_LENGTH, minLen / 2);
+                final BOSS.BOSSIndividual boss = new BOSS.BOSSIndividual(BOSS_WORD_LENGTH, BOSS_ALPHABET_SIZE, windowSize, true);
+                boss.buildClassifier(sameLength);
+                return i -> boss.BOSSTransform(first(i)).size();
+            }
+            default:
+                throw new IllegalArgumentException("Unknown benchmark: " + name);
+        }
+    }
+
+    private Sequence first(final int i) {
+        return data.get(firstIndex[i % NUM_PAIRS]);
+    }
+
+    private Sequence second(final int i) {
+        return data.get(secondIndex[i % NUM_PAIRS]);
+    }
+
+    private static double[] randomWalk(final int len, final Random random) {
+        final double[] series = new double[len];
+        double value = 0;
+        for (int i = 0; i < len; i++) {
+            value += random.nextGaussian();
+            series[i] = value;
+        }
+        return series;
+    }
+
+    private static int[] lengthsOf(final String datasetPath, final String problem) {
+        final String filename = datasetPath + problem + "/" + problem + "_TRAIN.tsv";
+        if (!new File(filename).isFile())
+            throw new IllegalArgumentException("Cannot find " + filename);
+        final Sequences train = new DataLoader(false).loadTrain(datasetPath, problem);
+        final int[] lengths = new int[train.size()];
+        for (int i = 0; i < train.size(); i++)
+            lengths[i] = train.get(i).length();
+        return lengths;
+    }
+}
@@ -9,6 +9,12 @@ import utilities.*;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * BOSS classifier with parameter search and ensembling, if parameters are known,
@@ -42,11 +48,18 @@ public class BOSS extends TimeseriesClassifier {
     private final double correctThreshold = 0.92;
     private int maxEnsembleSize = Integer.MAX_VALUE;
 
-    private final Integer[] wordLengths = {16, 14, 12, 10, 8};
+    private final int[] wordLengths = {16, 14, 12, 10, 8};
     private final int alphabetSize = 4;
 
     private boolean[] normOptions;
 
+    //threads searching the grid of normalisation x window size in buildClassifier
+    private int numThreads = 1;
+
+    //accuracy of the best member and of the worst member of the ensemble, only used under the lock of admit
+    private double maxAcc = -1.0;
+    private double minMaxAcc = -1.0;
+
     public static void main(String[] args) throws Exception {
         //Minimum working example
         final DataProcessor dataProcessor = new SuffixNoisePadder();
@@ -77,8 +90,16 @@ public class BOSS extends TimeseriesClassifier {
 
     }
 
+    /**
+     * @param numThreads number of threads to search the window sizes with during buildClassifier
+     */
+    public void setNumThreads(final int numThreads) {
+        this.numThreads = numThreads;
+    }
+
     private double ensembleCvAcc = -1;
     private double[] ensembleCvPreds = null;
+    private int numClasses;
 
 
     /**
@@ -99,10 +120,40 @@ public class BOSS extends TimeseriesClassifier {
         normOptions = new boolean[]{true, false};
     }
 
+    /**
+     * Ensemble read from a model file, see load
+     */
+    BOSS(final LinkedList<BOSSWindow> classifiers, final int numClasses, final double ensembleCvAcc) {
+        this();
+        this.classifiers = classifiers;
+        this.numClasses = numClasses;
+        this.ensembleCvAcc = ensembleCvAcc;
+    }
+
+    /**
+     * Save the trained ensemble to a compact binary file: the parameters, breakpoints and histograms of
+     * each member, without the training set
+     */
+    public void save(final String filename) throws IOException {
+        BOSSFormat.writeEnsemble(new File(filename), this);
+    }
+
+    /**
+     * Load an ensemble saved with save, ready to classify new series
+     */
+    public static BOSS load(final String filename) throws IOException {
+        return BOSSFormat.readEnsemble(new File(filename));
+    }
+
+    public int getNumClasses() {
+        return numClasses;
+    }
+
     public static class BOSSWindow implements Comparable<BOSSWindow>, Serializable {
         private BOSSIndividual classifier;
         public double accuracy;
         public String filename;
+        private transient int gridCell;  //position in the grid of buildClassifier, to keep the members in order
 
         private static final long serialVersionUID = 2L;
 
@@ -127,6 +178,10 @@ public class BOSS extends TimeseriesClassifier {
             classifier = null;
         }
 
+        BOSSIndividual getClassifier() {
+            return classifier;
+        }
+
 
         /**
          * @return { numIntervals(word length), alphabetSize, slidingWindowSize }
@@ -176,11 +231,9 @@ public class BOSS extends TimeseriesClassifier {
     @Override
     public void buildClassifier(final Sequences data) throws Exception {
         this.trainData = data;
+        this.numClasses = data.numClasses();
         classifiers = new LinkedList<BOSSWindow>();
 
-
-        final int numSeries = data.size();
-
         final int seriesLength = data.maxLength(); //minus class attribute
         int minWindow = 10;
         int maxWindow = seriesLength;
@@ -195,77 +248,160 @@ public class BOSS extends TimeseriesClassifier {
 
 
         //keep track of current max window size accuracy, constantly check for correctthreshold to discard to save space
-        double maxAcc = -1.0;
+        maxAcc = -1.0;
 
         //the acc of the worst member to make it into the final ensemble as it stands
-        double minMaxAcc = -1.0;
+        minMaxAcc = -1.0;
+
+        //grid of normalisation x window size, each cell is searched independently, in parallel if numThreads > 1
+        final int numWindows = maxWindow >= minWindow ? (maxWindow - minWindow) / winInc + 1 : 0;
+        final int numCells = normOptions.length * numWindows;
+        final int windowIncrement = winInc;
+        //threads left over when there are fewer cells than threads go to the leave-one-out search of each cell
+        final int gridThreads = Math.max(1, Math.min(numThreads, numCells));
+        final int looThreads = Math.max(1, numThreads / gridThreads);
+        final AtomicInteger nextCell = new AtomicInteger();
+        final Callable<Void> worker = () -> {
+            int cell;
+            while ((cell = nextCell.getAndIncrement()) < numCells) {
+                final boolean normalise = normOptions[cell / numWindows];
+                final int winSize = minWindow + (cell % numWindows) * windowIncrement;
+                searchWordLength(data, normalise, winSize, cell, looThreads);
+            }
+            return null;
+        };
+        runWorkers(worker, gridThreads);
+
+        //members are admitted in any order by the workers, keep them in the order of the grid
+        classifiers.sort(Comparator.comparingInt(bw -> bw.gridCell));
+
+        double[][] results = findEnsembleTrainAcc(data);
+        ensembleCvAcc = results[0][0];
+        System.out.println(String.format("[BOSS] CV acc: %.4f", results[0][0]));
+
+    }
 
-        for (boolean normalise : normOptions) {
-            for (int winSize = minWindow; winSize <= maxWindow; winSize += winInc) {
-                BOSSIndividual boss;
+    /**
+     * Build the BOSS of one window size with the longest word length, find the word length with the best
+     * leave-one-out accuracy, and offer it to the ensemble
+     */
+    private void searchWordLength(final Sequences data, final boolean normalise, final int winSize, final int cell,
+                                  final int looThreads) throws Exception {
+        final int numSeries = data.size();
 
-                //for feature saving/loading, one set per windowsize (with wordLengths[0]) is saved
-                //since shortening words to form histograms of different lengths is fast enough
-                //and saving EVERY feature set would very quickly eat up a disk
+        //for feature saving/loading, one set per windowsize (with wordLengths[0]) is saved
+        //since shortening words to form histograms of different lengths is fast enough
+        //and saving EVERY feature set would very quickly eat up a disk
 
-                boss = new BOSSIndividual(wordLengths[0], alphabetSize, winSize, normalise);
-                boss.buildClassifier(data); //initial setup for this windowsize, with max word length
+        BOSSIndividual boss = new BOSSIndividual(wordLengths[0], alphabetSize, winSize, normalise);
+        boss.buildClassifier(data); //initial setup for this windowsize, with max word length
 
-                BOSSIndividual bestClassifierForWinSize = null;
-                double bestAccForWinSize = -1.0;
+        //bags of all the word lengths in one pass over the SFA words, the first one is boss itself
+        final BOSSIndividual[] levels = boss.buildShortenedBags(wordLengths);
+        final int[] correct = leaveOneOutCorrect(levels, data, looThreads);
 
-                //find best word length for this window size
-                for (Integer wordLen : wordLengths) {
-                    boss = boss.buildShortenedBags(wordLen); //in first iteration, same lengths (wordLengths[0]), will do nothing
+        BOSSIndividual bestClassifierForWinSize = null;
+        double bestAccForWinSize = -1.0;
 
-                    int correct = 0;
-                    for (int i = 0; i < numSeries; ++i) {
-                        double c = boss.classifyInstance(i); //classify series i, while ignoring its corresponding histogram i
-                        if (c == data.get(i).getLabel())
-                            ++correct;
-                    }
+        //find best word length for this window size
+        for (int l = 0; l < levels.length; l++) {
+            double acc = (double) correct[l] / (double) numSeries;
+            if (acc >= bestAccForWinSize) {
+                bestAccForWinSize = acc;
+                bestClassifierForWinSize = levels[l];
+            }
+        }
 
-                    double acc = (double) correct / (double) numSeries;
-                    if (acc >= bestAccForWinSize) {
-                        bestAccForWinSize = acc;
-                        bestClassifierForWinSize = boss;
-                    }
+        admit(bestClassifierForWinSize, bestAccForWinSize, cell);
+    }
+
+    /**
+     * Leave-one-out accuracy of 1NN on the bags of each word length. Each series starts its search at the
+     * nearest neighbour found with the previous word length, likely to be close again, so that early abandoning
+     * prunes more. The series are shared between the threads.
+     *
+     * @return number of series correctly classified for each word length
+     */
+    private static int[] leaveOneOutCorrect(final BOSSIndividual[] levels, final Sequences data, final int numThreads) throws Exception {
+        final int numSeries = data.size();
+        final boolean[][] isCorrect = new boolean[levels.length][numSeries];
+        final AtomicInteger nextSeries = new AtomicInteger();
+        final Callable<Void> worker = () -> {
+            int i;
+            while ((i = nextSeries.getAndIncrement()) < numSeries) {
+                int nn = -1;
+                for (int l = 0; l < levels.length; l++) {
+                    nn = levels[l].nearestNeighbour(i, nn);
+                    isCorrect[l][i] = nn >= 0 && levels[l].bags.get(nn).getClassVal() == data.get(i).getLabel();
                 }
+            }
+            return null;
+        };
+        runWorkers(worker, numThreads);
+
+        final int[] correct = new int[levels.length];
+        for (int l = 0; l < levels.length; l++)
+            for (int i = 0; i < numSeries; i++)
+                if (isCorrect[l][i]) correct[l]++;
+        return correct;
+    }
 
-                //if this window size's accuracy is not good enough to make it into the ensemble, dont bother storing at all
-                if (makesItIntoEnsemble(bestAccForWinSize, maxAcc, minMaxAcc, classifiers.size())) {
-                    BOSSWindow bw = new BOSSWindow(bestClassifierForWinSize, bestAccForWinSize);
-                    bw.classifier.clean();
-
-                    classifiers.add(bw);
-
-                    if (bestAccForWinSize > maxAcc) {
-                        maxAcc = bestAccForWinSize;
-                        //get rid of any extras that dont fall within the new max threshold
-                        Iterator<BOSSWindow> it = classifiers.iterator();
-                        while (it.hasNext()) {
-                            BOSSWindow b = it.next();
-                            if (b.accuracy < maxAcc * correctThreshold) {
-                                it.remove();
-                            }
-                        }
-                    }
+    /**
+     * Run the worker on numThreads threads of a pool created for the call, or in this thread if numThreads <= 1
+     */
+    private static void runWorkers(final Callable<Void> worker, final int numThreads) throws Exception {
+        if (numThreads <= 1) {
+            worker.call();
+            return;
+        }
 
-                    while (classifiers.size() > maxEnsembleSize) {
-                        //cull the 'worst of the best' until back under the max size
-                        int minAccInd = (int) findMinEnsembleAcc()[0];
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            final List<Future<Void>> workers = new ArrayList<>(numThreads);
+            for (int t = 0; t < numThreads; t++)
+                workers.add(executor.submit(worker));
+            for (Future<Void> w : workers)
+                w.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-                        classifiers.remove(minAccInd);
+    /**
+     * Add a window size to the ensemble if it is good enough, and drop the members that are not anymore.
+     * Called by all the workers of buildClassifier, the ensemble is only changed while holding this lock
+     */
+    private synchronized void admit(final BOSSIndividual classifier, final double acc, final int cell) {
+        //if this window size's accuracy is not good enough to make it into the ensemble, dont bother storing at all
+        if (makesItIntoEnsemble(acc, maxAcc, minMaxAcc, classifiers.size())) {
+            BOSSWindow bw = new BOSSWindow(classifier, acc);
+            bw.classifier.clean();
+            bw.gridCell = cell;
+
+            classifiers.add(bw);
+
+            if (acc > maxAcc) {
+                maxAcc = acc;
+                //get rid of any extras that dont fall within the new max threshold
+                Iterator<BOSSWindow> it = classifiers.iterator();
+                while (it.hasNext()) {
+                    BOSSWindow b = it.next();
+                    if (b.accuracy < maxAcc * correctThreshold) {
+                        it.remove();
                     }
-                    minMaxAcc = findMinEnsembleAcc()[1]; //new 'worst of the best' acc
                 }
             }
-        }
 
-        double[][] results = findEnsembleTrainAcc(data);
-        ensembleCvAcc = results[0][0];
-        System.out.println(String.format("[BOSS] CV acc: %.4f", results[0][0]));
+            while (classifiers.size() > maxEnsembleSize) {
+                //cull the 'worst of the best' until back under the max size
+                int minAccInd = (int) findMinEnsembleAcc()[0];
 
+                classifiers.remove(minAccInd);
+            }
+            minMaxAcc = findMinEnsembleAcc()[1]; //new 'worst of the best' acc
+        }
     }
 
     //[0] = index, [1] = acc
@@ -400,7 +536,7 @@ public class BOSS extends TimeseriesClassifier {
     }
 
     public double[] distributionForInstance(Sequence instance) {
-        double[] classHist = new double[trainData.numClasses()];
+        double[] classHist = new double[numClasses];
 
         //get votes from all windows
         double sum = 0;
@@ -433,7 +569,10 @@ public class BOSS extends TimeseriesClassifier {
     public static class BOSSIndividual extends TimeseriesClassifier {
 
         //all sfa words found in original buildClassifier(), no numerosity reduction/shortening applied
-        protected BitWord[/*instance*/][/*windowindex*/] SFAwords;
+        protected int[/*instance*/][/*windowindex*/] SFAwords;
+
+        //number of letters of the SFA words, the word length this instance was built with
+        protected int sfaWordLength;
 
         //histograms of words of the current wordlength with numerosity reduction applied (if selected)
         public ArrayList<Bag> bags;
@@ -451,6 +590,11 @@ public class BOSS extends TimeseriesClassifier {
 
         protected boolean numerosityReduction = true;
 
+        //twiddle factors of DFT and DFTunnormed for the window size, see twiddles(n, unnormed),
+        //built in the constructor and only read afterwards, so that threads can share them
+        protected final transient double[][][] twiddles;
+        protected final transient double[][][] unnormedTwiddles;
+
         protected static final long serialVersionUID = 1L;
 
         public BOSSIndividual(int wordLength, int alphabetSize, int windowSize, boolean normalise) {
@@ -459,6 +603,8 @@ public class BOSS extends TimeseriesClassifier {
             this.windowSize = windowSize;
             this.inverseSqrtWindowSize = 1.0 / Math.sqrt(windowSize);
             this.norm = normalise;
+            this.twiddles = twiddleTable(windowSize, false);
+            this.unnormedTwiddles = twiddleTable(windowSize, true);
 
             //generateAlphabet();
         }
@@ -478,7 +624,10 @@ public class BOSS extends TimeseriesClassifier {
             //this.alphabet = boss.alphabet;
 
             this.SFAwords = boss.SFAwords;
+            this.sfaWordLength = boss.sfaWordLength;
             this.breakpoints = boss.breakpoints;
+            this.twiddles = boss.twiddles;
+            this.unnormedTwiddles = boss.unnormedTwiddles;
 
             bags = new ArrayList<>(boss.bags.size());
         }
@@ -498,12 +647,24 @@ public class BOSS extends TimeseriesClassifier {
             //this.alphabet = boss.alphabet;
 
             this.SFAwords = boss.SFAwords;
+            this.sfaWordLength = boss.sfaWordLength;
             this.breakpoints = boss.breakpoints;
+            this.twiddles = boss.twiddles;
+            this.unnormedTwiddles = boss.unnormedTwiddles;
 
             this.bags = boss.bags;
         }
 
-        public static class Bag extends HashMap<BitWord, Integer> {
+        /**
+         * Histogram of SFA words, with the words packed into ints (as in BitWord) and sorted,
+         * and the count of each word, so that the BOSS distance is a merge of two sorted arrays
+         */
+        public static class Bag implements Serializable {
+            private static final long serialVersionUID = 2L;
+            private static final int[] EMPTY = new int[0];
+
+            int[] words = EMPTY;
+            int[] counts = EMPTY;
             int classVal;
 
             public Bag() {
@@ -515,6 +676,50 @@ public class BOSS extends TimeseriesClassifier {
                 classVal = classValue;
             }
 
+            /**
+             * @param words    packed words, in any order, the array is sorted in place
+             * @param numWords number of words to use from the start of the array
+             */
+            Bag(int[] words, int numWords) {
+                Arrays.sort(words, 0, numWords);
+                int size = 0;
+                for (int i = 0; i < numWords; i++)
+                    if (i == 0 || words[i] != words[i - 1])
+                        size++;
+
+                this.words = new int[size];
+                this.counts = new int[size];
+                int k = -1;
+                for (int i = 0; i < numWords; i++) {
+                    if (i == 0 || words[i] != words[i - 1])
+                        this.words[++k] = words[i];
+                    this.counts[k]++;
+                }
+            }
+
+            /**
+             * @return number of distinct words
+             */
+            public int size() {
+                return words.length;
+            }
+
+            public int word(int i) {
+                return words[i];
+            }
+
+            public int count(int i) {
+                return counts[i];
+            }
+
+            /**
+             * @return count of the packed word, 0 if it is not in the bag
+             */
+            public int get(int word) {
+                final int i = Arrays.binarySearch(words, word);
+                return i >= 0 ? counts[i] : 0;
+            }
+
             public int getClassVal() {
                 return classVal;
             }
@@ -553,16 +758,11 @@ public class BOSS extends TimeseriesClassifier {
 
         public static boolean serialiseFeatureSet(BOSSIndividual boss, String path, String dsetName, int fold) {
             path += boss.classifierName + "/" + dsetName + "/" + "fold" + fold + "/";
-            File f = new File(path);
-            if (!f.exists())
-                f.mkdirs();
 
             String filename = boss.classifierName + "_" + dsetName + "_" + fold + "_" + boss.windowSize + "_" + boss.wordLength + "_" + boss.alphabetSize + "_" + boss.norm;
 
             try {
-                ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(path + filename));
-                out.writeObject(boss);
-                out.close();
+                BOSSFormat.writeIndividual(new File(path + filename), boss);
                 return true;
             } catch (IOException e) {
                 System.out.print("Error serialiszing to " + filename);
@@ -572,23 +772,11 @@ public class BOSS extends TimeseriesClassifier {
         }
 
         public static BOSSIndividual loadFeatureSet(String path, String dsetName, int fold, String name,
-                                                    int windowSize, int wordLength, int alphabetSize, boolean norm) throws IOException, ClassNotFoundException {
+                                                    int windowSize, int wordLength, int alphabetSize, boolean norm) throws IOException {
             path += name + "/" + dsetName + "/" + "fold" + fold + "/";
 
             String filename = name + "_" + dsetName + "_" + fold + "_" + windowSize + "_" + wordLength + "_" + alphabetSize + "_" + norm;
-            BOSSIndividual boss = null;
-            try {
-                ObjectInputStream in = new ObjectInputStream(new FileInputStream(path + filename));
-                boss = (BOSSIndividual) in.readObject();
-                in.close();
-                return boss;
-            } catch (IOException i) {
-                //System.out.print("Error deserialiszing from " + filename);
-                throw i;
-            } catch (ClassNotFoundException c) {
-                System.out.println("BOSSWindow class not found");
-                throw c;
-            }
+            return BOSSFormat.readIndividual(new File(path + filename));
         }
 
         protected double[][] slidingWindow(double[] data) {
@@ -642,13 +830,16 @@ public class BOSS extends TimeseriesClassifier {
             double normalisingFactor = inverseSqrtWindowSize / stdDev(series);
 
             double[] dft = new double[outputLength * 2];
+            final double[][][] twiddles = twiddles(n, false);
 
             for (int k = start; k < start + outputLength; k++) {  // For each output element
+                final double[] cos = twiddles[0][k];
+                final double[] sin = twiddles[1][k];
                 float sumreal = 0;
                 float sumimag = 0;
                 for (int t = 0; t < n; t++) {  // For each input element
-                    sumreal += series[t] * Math.cos(2 * Math.PI * t * k / n);
-                    sumimag += -series[t] * Math.sin(2 * Math.PI * t * k / n);
+                    sumreal += series[t] * cos[t];
+                    sumimag += -series[t] * sin[t];
                 }
                 dft[(k - start) * 2] = sumreal * normalisingFactor;
                 dft[(k - start) * 2 + 1] = sumimag * normalisingFactor;
@@ -668,14 +859,16 @@ public class BOSS extends TimeseriesClassifier {
             int start = (norm ? 1 : 0);
 
             double[] dft = new double[outputLength * 2];
-            double twoPi = 2 * Math.PI / n;
+            final double[][][] twiddles = twiddles(n, true);
 
             for (int k = start; k < start + outputLength; k++) {  // For each output element
+                final double[] cos = twiddles[0][k];
+                final double[] sin = twiddles[1][k];
                 float sumreal = 0;
                 float sumimag = 0;
                 for (int t = 0; t < n; t++) {  // For each input element
-                    sumreal += series[t] * Math.cos(twoPi * t * k);
-                    sumimag += -series[t] * Math.sin(twoPi * t * k);
+                    sumreal += series[t] * cos[t];
+                    sumimag += -series[t] * sin[t];
                 }
                 dft[(k - start) * 2] = sumreal;
                 dft[(k - start) * 2 + 1] = sumimag;
@@ -683,6 +876,35 @@ public class BOSS extends TimeseriesClassifier {
             return dft;
         }
 
+        /**
+         * Twiddle factors of the first coefficients of a DFT of length n, { cos[k][t], sin[k][t] }.
+         * The tables for the window size are built once in the constructor instead of in the inner loop of
+         * every DFT, other lengths get a new table.
+         * DFT and DFTunnormed each have their own table, their angles are computed with different
+         * expressions that do not round the same way.
+         */
+        protected double[][][] twiddles(int n, boolean unnormed) {
+            final int numCoefficients = (norm ? 1 : 0) + wordLength / 2;
+            final double[][][] table = unnormed ? unnormedTwiddles : twiddles;
+            if (table != null && table[0].length >= numCoefficients && table[0][0].length == n)
+                return table;
+            return twiddleTable(n, unnormed);
+        }
+
+        private double[][][] twiddleTable(int n, boolean unnormed) {
+            final int numCoefficients = (norm ? 1 : 0) + wordLength / 2;
+            final double[][][] table = new double[2][numCoefficients][n];
+            final double twoPi = 2 * Math.PI / n;
+            for (int k = 0; k < numCoefficients; k++) {
+                for (int t = 0; t < n; t++) {
+                    final double angle = unnormed ? twoPi * t * k : 2 * Math.PI * t * k / n;
+                    table[0][k][t] = Math.cos(angle);
+                    table[1][k][t] = Math.sin(angle);
+                }
+            }
+            return table;
+        }
+
         private double[] normalizeDFT(double[] dft, double std) {
             double normalisingFactor = (std > 0 ? 1.0 / std : 1.0) * inverseSqrtWindowSize;
             for (int i = 0; i < dft.length; i++)
@@ -835,24 +1057,36 @@ public class BOSS extends TimeseriesClassifier {
          * to be used e.g to transform new test instances
          */
         protected Bag createBagSingle(double[][] dfts) {
-            Bag bag = new Bag();
-            BitWord lastWord = new BitWord();
+            final int[] words = new int[dfts.length];
+            int numWords = 0;
+            int lastWord = 0;   //empty word, it has the same letters as a word of 'a's
 
             for (double[] d : dfts) {
-                BitWord word = createWord(d);
+                final int word = createPackedWord(d);
                 //add to bag, unless num reduction applies
-                if (numerosityReduction && word.equals(lastWord))
+                if (numerosityReduction && word == lastWord)
                     continue;
 
-                Integer val = bag.get(word);
-                if (val == null)
-                    val = 0;
-                bag.put(word, ++val);
-
+                words[numWords++] = word;
                 lastWord = word;
             }
 
-            return bag;
+            return new Bag(words, numWords);
+        }
+
+        /**
+         * Same as createWord, packed into an int without creating the BitWord
+         */
+        protected int createPackedWord(double[] dft) {
+            int word = 0;
+            for (int l = 0; l < wordLength; ++l) //for each letter
+                for (int bp = 0; bp < alphabetSize; ++bp) //run through breakpoints until right one found
+                    if (dft[l] <= breakpoints[l][bp]) {
+                        word = (word << BitWord.BITS_PER_LETTER) | bp; //add corresponding letter to word
+                        break;
+                    }
+
+            return word;
         }
 
         protected BitWord createWord(double[] dft) {
@@ -886,12 +1120,8 @@ public class BOSS extends TimeseriesClassifier {
          * @return new boss classifier with newWordLength, or passed in classifier if wordlengths are same
          */
         public BOSSIndividual buildShortenedBags(int newWordLength) throws Exception {
-            if (newWordLength == wordLength) //case of first iteration of word length search in ensemble
+            if (isCurrentWordLength(newWordLength)) //case of first iteration of word length search in ensemble
                 return this;
-            if (newWordLength > wordLength)
-                throw new Exception("Cannot incrementally INCREASE word length, current:" + wordLength + ", requested:" + newWordLength);
-            if (newWordLength < 2)
-                throw new Exception("Invalid wordlength requested, current:" + wordLength + ", requested:" + newWordLength);
 
             BOSSIndividual newBoss = new BOSSIndividual(this, newWordLength);
 
@@ -905,39 +1135,103 @@ public class BOSS extends TimeseriesClassifier {
             return newBoss;
         }
 
+        /**
+         * Shortens all bags to each of the word lengths at once, in one pass over the SFA words of each series:
+         * the packed words are cut to the first letters of each word length, with numerosity reduction
+         * applied separately for each word length.
+         *
+         * @param newWordLengths word lengths, none longer than the current one
+         * @return one classifier per word length, this instance for the current word length
+         */
+        public BOSSIndividual[] buildShortenedBags(int[] newWordLengths) throws Exception {
+            final int numLevels = newWordLengths.length;
+            final BOSSIndividual[] levels = new BOSSIndividual[numLevels];
+            final int[] shifts = new int[numLevels];
+            for (int l = 0; l < numLevels; l++) {
+                levels[l] = isCurrentWordLength(newWordLengths[l]) ? this : new BOSSIndividual(this, newWordLengths[l]);
+                shifts[l] = (sfaWordLength - newWordLengths[l]) * BitWord.BITS_PER_LETTER;
+            }
+
+            final int[][] packed = new int[numLevels][];
+            final int[] numWords = new int[numLevels];
+            final int[] lastWord = new int[numLevels];
+            for (int i = 0; i < bags.size(); ++i) {
+                final int[] words = SFAwords[i];
+                for (int l = 0; l < numLevels; l++) {
+                    if (levels[l] == this)
+                        continue;
+                    if (packed[l] == null || packed[l].length < words.length)
+                        packed[l] = new int[words.length];
+                    numWords[l] = 0;
+                    lastWord[l] = 0;    //empty word, it has the same letters as a word of 'a's
+                }
+
+                for (int w : words) {
+                    for (int l = 0; l < numLevels; l++) {
+                        if (levels[l] == this)
+                            continue;
+                        final int word = w >>> shifts[l];
+                        //add to bag, unless num reduction applies
+                        if (numerosityReduction && word == lastWord[l])
+                            continue;
+                        packed[l][numWords[l]++] = word;
+                        lastWord[l] = word;
+                    }
+                }
+
+                for (int l = 0; l < numLevels; l++) {
+                    if (levels[l] == this)
+                        continue;
+                    final Bag newBag = new Bag(packed[l], numWords[l]);
+                    newBag.setClassVal(bags.get(i).getClassVal());
+                    levels[l].bags.add(newBag);
+                }
+            }
+
+            return levels;
+        }
+
+        /**
+         * @return true if the word length is the current one, throws if it is not a valid shorter one
+         */
+        private boolean isCurrentWordLength(int newWordLength) throws Exception {
+            if (newWordLength == wordLength)
+                return true;
+            if (newWordLength > wordLength)
+                throw new Exception("Cannot incrementally INCREASE word length, current:" + wordLength + ", requested:" + newWordLength);
+            if (newWordLength < 2)
+                throw new Exception("Invalid wordlength requested, current:" + wordLength + ", requested:" + newWordLength);
+            return false;
+        }
+
         /**
          * Builds a bag from the set of words for a pre-transformed series of a given wordlength.
          */
-        protected Bag createBagFromWords(int thisWordLength, BitWord[] words) {
-            Bag bag = new Bag();
-            BitWord lastWord = new BitWord();
+        protected Bag createBagFromWords(int thisWordLength, int[] words) {
+            final int[] packed = new int[words.length];
+            int numWords = 0;
+            int lastWord = 0;   //empty word, it has the same letters as a word of 'a's
+            final int shift = (sfaWordLength - thisWordLength) * BitWord.BITS_PER_LETTER;
 
-            for (BitWord w : words) {
-                BitWord word = new BitWord(w);
-                if (wordLength != thisWordLength)
-                    word.shorten(16 - thisWordLength);
-                //TODO hack, word.length=16=maxwordlength, wordLength of 'this' BOSS instance unreliable, length of SFAwords = maxlength
+            for (int w : words) {
+                final int word = w >>> shift; //keep the first thisWordLength letters
 
                 //add to bag, unless num reduction applies
-                if (numerosityReduction && word.equals(lastWord))
+                if (numerosityReduction && word == lastWord)
                     continue;
 
-                Integer val = bag.get(word);
-                if (val == null)
-                    val = 0;
-                bag.put(word, ++val);
-
+                packed[numWords++] = word;
                 lastWord = word;
             }
 
-            return bag;
+            return new Bag(packed, numWords);
         }
 
-        protected BitWord[] createSFAwords(Sequence inst) throws Exception {
+        protected int[] createSFAwords(Sequence inst) throws Exception {
             double[][] dfts = performMFT(inst.getData()); //approximation
-            BitWord[] words = new BitWord[dfts.length];
+            int[] words = new int[dfts.length];
             for (int window = 0; window < dfts.length; ++window)
-                words[window] = createWord(dfts[window]);//discretisation
+                words[window] = createPackedWord(dfts[window]);//discretisation
 
             return words;
         }
@@ -956,7 +1250,8 @@ public class BOSS extends TimeseriesClassifier {
         public void buildClassifier(Sequences data) throws Exception {
             breakpoints = MCB(data); //breakpoints to be used for making sfa words for train AND test data
 
-            SFAwords = new BitWord[data.size()][];
+            SFAwords = new int[data.size()][];
+            sfaWordLength = wordLength;
             bags = new ArrayList<>(data.size());
 
             for (int inst = 0; inst < data.size(); ++inst) {
@@ -975,18 +1270,7 @@ public class BOSS extends TimeseriesClassifier {
          * @return squared distance FROM instA TO instB
          */
         public double BOSSdistance(Bag instA, Bag instB) {
-            double dist = 0.0;
-
-            //find dist only from values in instA
-            for (Map.Entry<BitWord, Integer> entry : instA.entrySet()) {
-                Integer valA = entry.getValue();
-                Integer valB = instB.get(entry.getKey());
-                if (valB == null)
-                    valB = 0;
-                dist += (valA - valB) * (valA - valB);
-            }
-
-            return dist;
+            return BOSSdistance(instA, instB, Double.POSITIVE_INFINITY);
         }
 
         /**
@@ -997,15 +1281,21 @@ public class BOSS extends TimeseriesClassifier {
          * @return distance FROM instA TO instB, or Double.MAX_VALUE if it would be greater than bestDist
          */
         public double BOSSdistance(Bag instA, Bag instB, double bestDist) {
+            final int[] wordsA = instA.words;
+            final int[] countsA = instA.counts;
+            final int[] wordsB = instB.words;
+            final int[] countsB = instB.counts;
+            final int sizeB = wordsB.length;
             double dist = 0.0;
 
-            //find dist only from values in instA
-            for (Map.Entry<BitWord, Integer> entry : instA.entrySet()) {
-                Integer valA = entry.getValue();
-                Integer valB = instB.get(entry.getKey());
-                if (valB == null)
-                    valB = 0;
-                dist += (valA - valB) * (valA - valB);
+            //find dist only from values in instA, both bags are sorted by word
+            int j = 0;
+            for (int i = 0; i < wordsA.length; i++) {
+                final int word = wordsA[i];
+                while (j < sizeB && wordsB[j] < word)
+                    j++;
+                final int valB = j < sizeB && wordsB[j] == word ? countsB[j] : 0;
+                dist += (countsA[i] - valB) * (countsA[i] - valB);
 
                 if (dist > bestDist)
                     return Double.MAX_VALUE;
@@ -1034,6 +1324,40 @@ public class BOSS extends TimeseriesClassifier {
             return nn;
         }
 
+        /**
+         * Nearest neighbour of the training series at index test among the other training series, as
+         * classifyInstance(test), trying the series at index first before the others, e.g. the nearest neighbour
+         * with another word length, so that early abandoning starts with a tight cut-off.
+         *
+         * @param test  index of the series to classify
+         * @param first index of the series to try first, or -1
+         * @return index of the nearest neighbour, the smallest index on ties, or -1 if there is none
+         */
+        public int nearestNeighbour(int test, int first) {
+            double bestDist = Double.MAX_VALUE;
+            int nn = -1;
+
+            final Bag testBag = bags.get(test);
+            if (first >= 0 && first != test) {
+                bestDist = BOSSdistance(testBag, bags.get(first));
+                nn = first;
+            }
+
+            for (int i = 0; i < bags.size(); ++i) {
+                if (i == test || i == first) //skip 'this' one, leave-one-out
+                    continue;
+
+                double dist = BOSSdistance(testBag, bags.get(i), bestDist);
+
+                if (dist < bestDist || (dist == bestDist && i < nn)) {
+                    bestDist = dist;
+                    nn = i;
+                }
+            }
+
+            return nn;
+        }
+
         /**
          * Used within BOSSEnsemble as part of a leave-one-out crossvalidation, to skip having to rebuild
          * the classifier every time (since the n histograms would be identical each time anyway), therefore this classifies
@@ -0,0 +1,164 @@
+/* Copyright (C) 2019 Chang Wei Tan, Francois Petitjean, Geoff Webb
+ This file is part of Varying length TSC.
+ Varying length TSC is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, version 3 of the License.
+ Varying length TSC is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with Varying length TSC.  If not, see <http://www.gnu.org/licenses/>. */
+package classifiers;
+
+import FileIO.ModelFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+import static FileIO.ModelFile.*;
+
+/**
+ * This is a class to write and read trained BOSS models in a ModelFile.
+ * Only what is needed to classify is stored: the parameters, breakpoints and histograms of each
+ * BOSSIndividual, and the SFA words of the training series when they have not been cleaned.
+ * <p>
+ * Ensemble payload: number of classes, ensemble CV accuracy, number of members,
+ * then the accuracy and the individual of each member.
+ * Individual payload: window size, word length, alphabet size, normalise, numerosity reduction,
+ * breakpoints (one array per letter), number of bags, then the class, words and counts of each bag,
+ * then the length of the SFA words and the SFA words of each series (-1 if there are none).
+ *
+ * @author Chang Wei
+ */
+class BOSSFormat {
+    private static final int ENSEMBLE_MAGIC = 0x424f5345;    // "BOSE"
+    private static final int INDIVIDUAL_MAGIC = 0x424f5349;  // "BOSI"
+    private static final int VERSION = 1;
+
+    static void writeEnsemble(final File file, final BOSS boss) throws IOException {
+        long size = 4 + 8 + 4;
+        for (BOSS.BOSSWindow window : boss.classifiers)
+            size += 8 + individualBytes(window.getClassifier());
+
+        final ByteBuffer buffer = ModelFile.allocate(size, ENSEMBLE_MAGIC, VERSION);
+        buffer.putInt(boss.getNumClasses());
+        buffer.putDouble(boss.getEnsembleCvAcc());
+        buffer.putInt(boss.classifiers.size());
+        for (BOSS.BOSSWindow window : boss.classifiers) {
+            buffer.putDouble(window.accuracy);
+            putIndividual(buffer, window.getClassifier());
+        }
+        ModelFile.write(file, buffer);
+    }
+
+    static BOSS readEnsemble(final File file) throws IOException {
+        final ByteBuffer buffer = ModelFile.read(file, ENSEMBLE_MAGIC, VERSION);
+        final int numClasses = buffer.getInt();
+        final double ensembleCvAcc = buffer.getDouble();
+        final int numMembers = buffer.getInt();
+        final LinkedList<BOSS.BOSSWindow> classifiers = new LinkedList<>();
+        for (int m = 0; m < numMembers; m++) {
+            final double accuracy = buffer.getDouble();
+            classifiers.add(new BOSS.BOSSWindow(getIndividual(buffer), accuracy));
+        }
+        return new BOSS(classifiers, numClasses, ensembleCvAcc);
+    }
+
+    static void writeIndividual(final File file, final BOSS.BOSSIndividual boss) throws IOException {
+        final ByteBuffer buffer = ModelFile.allocate(individualBytes(boss), INDIVIDUAL_MAGIC, VERSION);
+        putIndividual(buffer, boss);
+        ModelFile.write(file, buffer);
+    }
+
+    static BOSS.BOSSIndividual readIndividual(final File file) throws IOException {
+        return getIndividual(ModelFile.read(file, INDIVIDUAL_MAGIC, VERSION));
+    }
+
+    private static long individualBytes(final BOSS.BOSSIndividual boss) {
+        long size = 4 + 4 + 4 + 1 + 1 + 4;
+        for (double[] letter : boss.breakpoints)
+            size += doublesBytes(letter);
+        size += 4;
+        for (BOSS.BOSSIndividual.Bag bag : boss.bags)
+            size += 4 + intsBytes(bag.words) + intsBytes(bag.counts);
+        size += 4;
+        if (boss.SFAwords != null) {
+            size += 4;
+            for (int[] words : boss.SFAwords)
+                size += intsBytes(words);
+        }
+        return size;
+    }
+
+    private static void putIndividual(final ByteBuffer buffer, final BOSS.BOSSIndividual boss) {
+        buffer.putInt(boss.windowSize);
+        buffer.putInt(boss.wordLength);
+        buffer.putInt(boss.alphabetSize);
+        buffer.put((byte) (boss.norm ? 1 : 0));
+        buffer.put((byte) (boss.numerosityReduction ? 1 : 0));
+
+        buffer.putInt(boss.breakpoints.length);
+        for (double[] letter : boss.breakpoints)
+            putDoubles(buffer, letter);
+
+        buffer.putInt(boss.bags.size());
+        for (BOSS.BOSSIndividual.Bag bag : boss.bags) {
+            buffer.putInt(bag.classVal);
+            putInts(buffer, bag.words);
+            putInts(buffer, bag.counts);
+        }
+
+        if (boss.SFAwords == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(boss.sfaWordLength);
+            buffer.putInt(boss.SFAwords.length);
+            for (int[] words : boss.SFAwords)
+                putInts(buffer, words);
+        }
+    }
+
+    private static BOSS.BOSSIndividual getIndividual(final ByteBuffer buffer) throws IOException {
+        final int windowSize = buffer.getInt();
+        final int wordLength = buffer.getInt();
+        final int alphabetSize = buffer.getInt();
+        final boolean norm = buffer.get() != 0;
+        final BOSS.BOSSIndividual boss = new BOSS.BOSSIndividual(wordLength, alphabetSize, windowSize, norm);
+        boss.numerosityReduction = buffer.get() != 0;
+
+        boss.breakpoints = new double[checkedCount(buffer)][];
+        for (int l = 0; l < boss.breakpoints.length; l++)
+            boss.breakpoints[l] = getDoubles(buffer);
+
+        final int numBags = checkedCount(buffer);
+        boss.bags = new ArrayList<>(numBags);
+        for (int b = 0; b < numBags; b++) {
+            final BOSS.BOSSIndividual.Bag bag = new BOSS.BOSSIndividual.Bag(buffer.getInt());
+            bag.words = getInts(buffer);
+            bag.counts = getInts(buffer);
+            if (bag.words.length != bag.counts.length)
+                throw new IOException("Bag with " + bag.words.length + " words and " + bag.counts.length + " counts");
+            boss.bags.add(bag);
+        }
+
+        final int sfaWordLength = buffer.getInt();
+        if (sfaWordLength >= 0) {
+            boss.sfaWordLength = sfaWordLength;
+            boss.SFAwords = new int[checkedCount(buffer)][];
+            for (int s = 0; s < boss.SFAwords.length; s++)
+                boss.SFAwords[s] = getInts(buffer);
+        }
+        return boss;
+    }
+
+    private static int checkedCount(final ByteBuffer buffer) throws IOException {
+        final int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining())
+            throw new IOException("Invalid count in BOSS model file: " + count);
+        return count;
+    }
+}
@@ -11,23 +11,46 @@
  along with Varying length TSC.  If not, see <http://www.gnu.org/licenses/>. */
 package classifiers;
 
+import FileIO.ModelFile;
 import data.Sequence;
 import data.Sequences;
 import dataProcessor.*;
 import distances.DTW;
+import distances.DTWLowerBound;
 import normalization.NoNormalizer;
 import normalization.Normalizer;
 import utilities.DataLoader;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
 /**
  * This is a class for 1NN DTW
  *
  * @author Chang Wei
  */
 public class DTW1NN extends OneNearestNeighbour {
-    private DTW distComputer = new DTW();
+    // paramId that searches the window with leave-one-out cross validation on the training set
+    public static final int LOOCV_PARAM_ID = -1;
+
+    // each thread gets its own DTW workspace so that queries can be classified concurrently
+    private final ThreadLocal<DTW> distComputer = ThreadLocal.withInitial(DTW::new);
     private double r = 1;
     private int window;
+    private double[] loocvAccuracy;
+
+    // envelopes of the training series for LB_Keogh, built for the current window
+    private double[][] trainUpper;
+    private double[][] trainLower;
+
+    // number of candidates pruned by each stage of the lower bound cascade
+    private final LongAdder candidatesChecked = new LongAdder();
+    private final LongAdder prunedByKim = new LongAdder();
+    private final LongAdder prunedByKeogh = new LongAdder();
+    private final LongAdder prunedByKeoghReverse = new LongAdder();
+    private final LongAdder dtwComputed = new LongAdder();
 
     public void summary() {
         System.out.println("[CLASSIFIER SUMMARY] Classifier: DTW1NN" +
@@ -57,6 +80,7 @@ public class DTW1NN extends OneNearestNeighbour {
         final double accuracyLong = classifier.accuracyLong(testData);
         final double accuracyShort = classifier.accuracyShort(testData);
         final double accuracyOptimalPath = classifier.accuracyPathLen(testData);
+        classifier.pruningSummary();
         System.out.println(String.format("[DTW1NN] Accuracy: %.4f", accuracy));
         System.out.println(String.format("[DTW1NN] Accuracy Long: %.4f", accuracyLong));
         System.out.println(String.format("[DTW1NN] Accuracy Short: %.4f", accuracyShort));
@@ -104,6 +128,7 @@ public class DTW1NN extends OneNearestNeighbour {
 
     private int classifyShort(final Sequence query) {
         final int queryLen = query.length();
+        final double[][] queryEnvelope = queryEnvelope(query);
         int[] classCounts = new int[this.trainData.numClasses()];
 
         double dist;
@@ -117,12 +142,15 @@ public class DTW1NN extends OneNearestNeighbour {
         for (int candidateIndex = 1; candidateIndex < trainData.size(); candidateIndex++) {
             candidate = trainData.get(candidateIndex);
             normFactor = Math.min(candidate.length(), queryLen);
-            dist = distance(query, candidate);
+            final double cutOffValue = normalisedCutOff(bsfDistanceNorm, normFactor, bsfDistance);
+            if (pruned(query, queryEnvelope, candidateIndex, cutOffValue))
+                continue;
+            dist = distance(query, candidate, cutOffValue);
             final double distNorm = dist / normFactor;
             if (distNorm < bsfDistanceNorm) {
                 bsfDistance = dist;
                 bsfDistanceNorm = distNorm;
-                classCounts = new int[trainData.numClasses()];
+                Arrays.fill(classCounts, 0);
                 classCounts[candidate.getLabel()]++;
             } else if (dist == bsfDistance) {
                 classCounts[candidate.getLabel()]++;
@@ -142,6 +170,7 @@ public class DTW1NN extends OneNearestNeighbour {
 
     private int classifyLong(final Sequence query) {
         final int queryLen = query.length();
+        final double[][] queryEnvelope = queryEnvelope(query);
         int[] classCounts = new int[this.trainData.numClasses()];
 
         double dist;
@@ -155,12 +184,15 @@ public class DTW1NN extends OneNearestNeighbour {
         for (int candidateIndex = 1; candidateIndex < trainData.size(); candidateIndex++) {
             candidate = trainData.get(candidateIndex);
             normFactor = Math.max(candidate.length(), queryLen);
-            dist = distance(query, candidate);
+            final double cutOffValue = normalisedCutOff(bsfDistanceNorm, normFactor, bsfDistance);
+            if (pruned(query, queryEnvelope, candidateIndex, cutOffValue))
+                continue;
+            dist = distance(query, candidate, cutOffValue);
             final double distNorm = dist / normFactor;
             if (distNorm < bsfDistanceNorm) {
                 bsfDistance = dist;
                 bsfDistanceNorm = distNorm;
-                classCounts = new int[trainData.numClasses()];
+                Arrays.fill(classCounts, 0);
                 classCounts[candidate.getLabel()]++;
             } else if (dist == bsfDistance) {
                 classCounts[candidate.getLabel()]++;
@@ -179,24 +211,68 @@ public class DTW1NN extends OneNearestNeighbour {
     }
 
     private int classifyPathLen(final Sequence query) {
+        final double[][] queryEnvelope = queryEnvelope(query);
+        int[] classCounts = new int[this.trainData.numClasses()];
+
+        double dist;
+
+        Sequence candidate = trainData.get(0);
+        DTW.Result result = distanceWithPathLength(query, candidate, Double.POSITIVE_INFINITY);
+        double bsfDistance = result.distance;
+        if (bsfDistance < Double.POSITIVE_INFINITY)
+            bsfDistance = bsfDistance / result.pathLength;
+        classCounts[candidate.getLabel()]++;
+
+        for (int candidateIndex = 1; candidateIndex < trainData.size(); candidateIndex++) {
+            candidate = trainData.get(candidateIndex);
+            // the warping path has at most n+m-1 cells
+            final int maxPathLen = query.length() + candidate.length() - 1;
+            final double cutOffValue = normalisedCutOff(bsfDistance, maxPathLen, 0);
+            if (pruned(query, queryEnvelope, candidateIndex, cutOffValue))
+                continue;
+            result = distanceWithPathLength(query, candidate, cutOffValue);
+            if (result.distance == Double.POSITIVE_INFINITY)
+                continue;
+            dist = result.distance / result.pathLength;
+            if (dist < bsfDistance) {
+                bsfDistance = dist;
+                Arrays.fill(classCounts, 0);
+                classCounts[candidate.getLabel()]++;
+            } else if (dist == bsfDistance) {
+                classCounts[candidate.getLabel()]++;
+            }
+        }
+
+        int bsfClass = -1;
+        double bsfCount = -1;
+        for (int i = 0; i < classCounts.length; i++) {
+            if (classCounts[i] > bsfCount) {
+                bsfCount = classCounts[i];
+                bsfClass = i;
+            }
+        }
+        return bsfClass;
+    }
+
+    @Override
+    public int classifyInstance(final Sequence query) {
+        final double[][] queryEnvelope = queryEnvelope(query);
         int[] classCounts = new int[this.trainData.numClasses()];
 
         double dist;
 
         Sequence candidate = trainData.get(0);
         double bsfDistance = distance(query, candidate);
-        int pathLen = DTW.findPathLen(query.length(), candidate.length());
-        bsfDistance = bsfDistance / pathLen;
         classCounts[candidate.getLabel()]++;
 
         for (int candidateIndex = 1; candidateIndex < trainData.size(); candidateIndex++) {
+            if (pruned(query, queryEnvelope, candidateIndex, bsfDistance))
+                continue;
             candidate = trainData.get(candidateIndex);
-            dist = distance(query, candidate);
-            pathLen = DTW.findPathLen(query.length(), candidate.length());
-            dist = dist / pathLen;
+            dist = distance(query, candidate, bsfDistance);
             if (dist < bsfDistance) {
                 bsfDistance = dist;
-                classCounts = new int[trainData.numClasses()];
+                Arrays.fill(classCounts, 0);
                 classCounts[candidate.getLabel()]++;
             } else if (dist == bsfDistance) {
                 classCounts[candidate.getLabel()]++;
@@ -214,27 +290,240 @@ public class DTW1NN extends OneNearestNeighbour {
         return bsfClass;
     }
 
+    /**
+     * Query of a batch with its envelope for the lower bound cascade
+     */
+    private static class DTWQuery extends BatchQuery {
+        final double[][] envelope;
+
+        DTWQuery(final Sequence query, final double[][] envelope) {
+            super(query);
+            this.envelope = envelope;
+        }
+    }
+
+    @Override
+    protected BatchQuery prepare(final Sequence query) {
+        return new DTWQuery(query, queryEnvelope(query));
+    }
+
+    /**
+     * Lower bound cascade first, then DTW with early abandoning.
+     * Nothing can be pruned at an infinite cut-off, so the cascade is skipped then.
+     */
+    @Override
+    protected double distance(final BatchQuery query, final int candidateIndex, final double cutOffValue) {
+        if (cutOffValue < Double.POSITIVE_INFINITY && pruned(query.query, ((DTWQuery) query).envelope, candidateIndex, cutOffValue))
+            return Double.POSITIVE_INFINITY;
+        return distance(query.query, trainData.get(candidateIndex), cutOffValue);
+    }
+
+    /**
+     * Lower bound cascade: LB_Kim, LB_Keogh of the query against the envelope of the candidate,
+     * then LB_Keogh of the candidate against the envelope of the query.
+     * A candidate is only pruned if a bound is strictly larger than the cut-off, so ties are kept.
+     *
+     * @param query          query
+     * @param queryEnvelope  upper and lower envelopes of the query
+     * @param candidateIndex index of the candidate in the training set
+     * @param cutOffValue    cut-off value
+     * @return true if DTW(query, candidate) is larger than the cut-off value
+     */
+    private boolean pruned(final Sequence query, final double[][] queryEnvelope, final int candidateIndex, final double cutOffValue) {
+        final Sequence candidate = trainData.get(candidateIndex);
+        final double[] queryData = query.getBuffer();
+        final int queryOffset = query.getOffset();
+        final double[] candidateData = candidate.getBuffer();
+        final int candidateOffset = candidate.getOffset();
+        final int lbWindow = lbWindow();
+        candidatesChecked.increment();
+
+        if (DTWLowerBound.lbKim(queryData, queryOffset, query.length(), candidateData, candidateOffset, candidate.length()) > cutOffValue) {
+            prunedByKim.increment();
+            return true;
+        }
+        if (DTWLowerBound.lbKeogh(queryData, queryOffset, query.length(), trainUpper[candidateIndex], trainLower[candidateIndex], lbWindow, cutOffValue) > cutOffValue) {
+            prunedByKeogh.increment();
+            return true;
+        }
+        if (DTWLowerBound.lbKeogh(candidateData, candidateOffset, candidate.length(), queryEnvelope[0], queryEnvelope[1], lbWindow, cutOffValue) > cutOffValue) {
+            prunedByKeoghReverse.increment();
+            return true;
+        }
+        dtwComputed.increment();
+        return false;
+    }
+
+    private double[][] queryEnvelope(final Sequence query) {
+        final double[][] envelope = new double[2][query.length()];
+        DTWLowerBound.envelope(query.getBuffer(), query.getOffset(), query.length(), lbWindow(), envelope[0], envelope[1]);
+        return envelope;
+    }
+
+    private int lbWindow() {
+        return r < 1 ? window : Integer.MAX_VALUE;
+    }
+
+    private void buildEnvelopes() {
+        final int lbWindow = lbWindow();
+        trainUpper = new double[trainData.size()][];
+        trainLower = new double[trainData.size()][];
+        for (int i = 0; i < trainData.size(); i++) {
+            final Sequence candidate = trainData.get(i);
+            trainUpper[i] = new double[candidate.length()];
+            trainLower[i] = new double[candidate.length()];
+            DTWLowerBound.envelope(candidate.getBuffer(), candidate.getOffset(), candidate.length(), lbWindow,
+                    trainUpper[i], trainLower[i]);
+        }
+    }
+
+    public void resetPruningStats() {
+        candidatesChecked.reset();
+        prunedByKim.reset();
+        prunedByKeogh.reset();
+        prunedByKeoghReverse.reset();
+        dtwComputed.reset();
+    }
+
+    /**
+     * @return { candidates checked, pruned by LB_Kim, pruned by LB_Keogh, pruned by reversed LB_Keogh, DTW computed }
+     */
+    public long[] getPruningStats() {
+        return new long[]{candidatesChecked.sum(), prunedByKim.sum(), prunedByKeogh.sum(),
+                prunedByKeoghReverse.sum(), dtwComputed.sum()};
+    }
+
+    public void pruningSummary() {
+        final long[] stats = getPruningStats();
+        final double checked = Math.max(1, stats[0]);
+        System.out.println(String.format("[DTW1NN] Candidates checked:     %d", stats[0]) +
+                String.format("\n[DTW1NN] Pruned by LB_Kim:       %d (%.2f%%)", stats[1], 100 * stats[1] / checked) +
+                String.format("\n[DTW1NN] Pruned by LB_Keogh(Q,C): %d (%.2f%%)", stats[2], 100 * stats[2] / checked) +
+                String.format("\n[DTW1NN] Pruned by LB_Keogh(C,Q): %d (%.2f%%)", stats[3], 100 * stats[3] / checked) +
+                String.format("\n[DTW1NN] DTW computed:           %d (%.2f%%)", stats[4], 100 * stats[4] / checked));
+    }
+
+    @Override
+    public void buildClassifier(final Sequences trainData) throws Exception {
+        super.buildClassifier(trainData);
+        buildEnvelopes();
+    }
+
+    private DTW.Result distanceWithPathLength(final Sequence first, final Sequence second, final double cutOffValue) {
+        if (r < 1) {
+            return distComputer.get().distanceWithPathLength(first, second, window, cutOffValue);
+        }
+        return distComputer.get().distanceWithPathLength(first, second, Math.max(first.length(), second.length()), cutOffValue);
+    }
+
     @Override
     public double distance(final Sequence first, final Sequence second) {
         if (r < 1) {
 //            window = (int) (r * Math.max(first.length(), second.length()));
-            return distComputer.distance(first, second, window);
+            return distComputer.get().distance(first, second, window);
         }
-        return distComputer.distance(first, second);
+        return distComputer.get().distance(first, second);
     }
 
     @Override
     public double distance(final Sequence first, final Sequence second, final double cutOffValue) {
         if (r < 1) {
 //            window = (int) (r * Math.max(first.length(), second.length()));
-            return distComputer.distance(first, second, window, cutOffValue);
+            return distComputer.get().distance(first, second, window, cutOffValue);
+        }
+        return distComputer.get().distance(first, second, cutOffValue);
+    }
+
+    /**
+     * Classifier for a series arriving one point at a time, with the window of this classifier
+     *
+     * @param openEnd whether the prefix is matched to the best prefix of each training series,
+     *                rather than to the whole training series as with classifyInstance
+     */
+    public PrefixClassifier prefixClassifier(final boolean openEnd) {
+        return new PrefixClassifier.DTWPrefix(trainData, lbWindow(), openEnd);
+    }
+
+    /**
+     * Find the window with the best leave-one-out accuracy on the training set, among paramId 0 to 100,
+     * the smallest window on ties, and use it
+     *
+     * @return paramId of the window
+     */
+    public int searchWindow() {
+        final long start = System.nanoTime();
+        final DTWWindowSearch search = new DTWWindowSearch(trainData);
+        loocvAccuracy = search.search();
+
+        int bestParamId = 0;
+        for (int paramId = 1; paramId < loocvAccuracy.length; paramId++) {
+            if (loocvAccuracy[paramId] > loocvAccuracy[bestParamId])
+                bestParamId = paramId;
+        }
+        final long[] stats = search.getStats();
+        System.out.println(String.format("[DTW1NN] LOOCV best paramId: %d, accuracy %.4f, %d DTW for %d pairs checked in %.3f s",
+                bestParamId, loocvAccuracy[bestParamId], stats[1], stats[0], (System.nanoTime() - start) / 1e9));
+
+        setParamsFromParamId(bestParamId);
+        return bestParamId;
+    }
+
+    /**
+     * @return leave-one-out accuracy of each paramId from the last window search, or null
+     */
+    public double[] getLoocvAccuracy() {
+        return loocvAccuracy;
+    }
+
+    /**
+     * State: r, window, the envelopes of the training series, and the leave-one-out accuracies if there are any
+     */
+    @Override
+    protected long stateBytes() {
+        long size = 8 + 4 + 4;
+        for (int i = 0; i < trainUpper.length; i++)
+            size += ModelFile.doublesBytes(trainUpper[i]) + ModelFile.doublesBytes(trainLower[i]);
+        return size + 1 + (loocvAccuracy == null ? 0 : ModelFile.doublesBytes(loocvAccuracy));
+    }
+
+    @Override
+    protected void writeState(final ByteBuffer out) {
+        out.putDouble(r);
+        out.putInt(window);
+        out.putInt(trainUpper.length);
+        for (int i = 0; i < trainUpper.length; i++) {
+            ModelFile.putDoubles(out, trainUpper[i]);
+            ModelFile.putDoubles(out, trainLower[i]);
         }
-        return distComputer.distance(first, second, cutOffValue);
+        out.put((byte) (loocvAccuracy == null ? 0 : 1));
+        if (loocvAccuracy != null)
+            ModelFile.putDoubles(out, loocvAccuracy);
+    }
+
+    @Override
+    protected void readState(final ByteBuffer in) throws IOException {
+        r = in.getDouble();
+        window = in.getInt();
+        final int size = in.getInt();
+        if (size != trainData.size())
+            throw new IOException("Envelopes for " + size + " series, the training set has " + trainData.size());
+        trainUpper = new double[size][];
+        trainLower = new double[size][];
+        for (int i = 0; i < size; i++) {
+            trainUpper[i] = ModelFile.getDoubles(in);
+            trainLower[i] = ModelFile.getDoubles(in);
+        }
+        loocvAccuracy = in.get() != 0 ? ModelFile.getDoubles(in) : null;
     }
 
     @Override
     public void setParamsFromParamId(final int paramId) {
+        if (paramId == LOOCV_PARAM_ID) {
+            searchWindow();
+            return;
+        }
         r = 1.0 * paramId / 100;
-        window = (int) (r * trainData.maxLength());
+        window = DTWWindowSearch.windowOf(paramId, trainData.maxLength());
+        buildEnvelopes();
     }
 }
@@ -0,0 +1,192 @@
+/* Copyright (C) 2019 Chang Wei Tan, Francois Petitjean, Geoff Webb
+ This file is part of Varying length TSC.
+ Varying length TSC is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, version 3 of the License.
+ Varying length TSC is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with Varying length TSC.  If not, see <http://www.gnu.org/licenses/>. */
+package classifiers;
+
+import data.Sequence;
+import data.Sequences;
+import distances.DTW;
+import distances.DTWLowerBound;
+
+/**
+ * This is a class to find the leave-one-out accuracy of 1NN DTW for all the windows of DTW1NN (paramId 0 to 100)
+ * in one pass, going from the largest window to the smallest and sharing the work between the windows:
+ * - DTW with window w is a lower bound of DTW with any smaller window, and so are LB_Kim and LB_Keogh with window w,
+ * so every distance or bound computed for a pair is kept as a lower bound for the next windows.
+ * - DTW with window w stays the same for all the windows down to the largest |i-j| on its warping path
+ * (its window validity), so a pair is only computed again once the window goes below its validity.
+ * The nearest neighbours, with their ties, are the same as the ones found by DTW1NN for each window.
+ *
+ * @author Chang Wei
+ */
+class DTWWindowSearch {
+    static final int MAX_PARAM_ID = 100;
+
+    private final Sequences trainData;
+    private final int size;
+    private final int numClasses;
+    private final DTW dtw = new DTW();
+
+    // for each pair i > j, stored at [i][j]: best lower bound known, exact for the current window if valid[i][j] <= window
+    private final double[][] lowerBound;
+    private final int[][] valid;
+
+    // envelopes for the current window
+    private final double[][] upper;
+    private final double[][] lower;
+
+    private long dtwComputed, pairsChecked;
+
+    DTWWindowSearch(final Sequences trainData) {
+        this.trainData = trainData;
+        this.size = trainData.size();
+        this.numClasses = trainData.numClasses();
+        this.lowerBound = new double[size][];
+        this.valid = new int[size][];
+        this.upper = new double[size][];
+        this.lower = new double[size][];
+        for (int i = 0; i < size; i++) {
+            lowerBound[i] = new double[i];
+            valid[i] = new int[i];
+            java.util.Arrays.fill(valid[i], Integer.MAX_VALUE);
+            upper[i] = new double[trainData.get(i).length()];
+            lower[i] = new double[trainData.get(i).length()];
+        }
+    }
+
+    static int windowOf(final int paramId, final int maxLength) {
+        return (int) (1.0 * paramId / 100 * maxLength);
+    }
+
+    /**
+     * @return leave-one-out accuracy for each paramId from 0 to 100
+     */
+    double[] search() {
+        final double[] accuracy = new double[MAX_PARAM_ID + 1];
+        final int maxLength = trainData.maxLength();
+        final int[] nearest = new int[size];   // a nearest neighbour at the previous window, tried first
+        for (int i = 0; i < size; i++)
+            nearest[i] = i == 0 ? Math.min(1, size - 1) : 0;
+
+        int previousWindow = -1;
+        for (int paramId = MAX_PARAM_ID; paramId >= 0; paramId--) {
+            final int window = windowOf(paramId, maxLength);
+            if (window == previousWindow) {
+                accuracy[paramId] = accuracy[paramId + 1];
+                continue;
+            }
+            previousWindow = window;
+
+            for (int i = 0; i < size; i++) {
+                final Sequence series = trainData.get(i);
+                DTWLowerBound.envelope(series.getBuffer(), series.getOffset(), series.length(), window, upper[i], lower[i]);
+            }
+
+            int nCorrect = 0;
+            for (int i = 0; i < size; i++) {
+                if (classify(i, window, nearest) == trainData.get(i).getLabel())
+                    nCorrect++;
+            }
+            accuracy[paramId] = 1.0 * nCorrect / size;
+        }
+        return accuracy;
+    }
+
+    /**
+     * Classify a training series with the rest of the training set
+     */
+    private int classify(final int query, final int window, final int[] nearest) {
+        int[] classCounts = new int[numClasses];
+        double bsfDistance = Double.POSITIVE_INFINITY;
+        boolean first = true;
+
+        final int start = nearest[query];
+        for (int k = 0; k < size; k++) {
+            // start from the nearest neighbour at the previous window, it is likely to be close again
+            final int candidate = k == 0 ? start : (k <= start ? k - 1 : k);
+            if (candidate == query) continue;
+
+            final double dist = distance(query, candidate, window, bsfDistance);
+            if (first || dist < bsfDistance) {
+                first = false;
+                bsfDistance = dist;
+                classCounts = new int[numClasses];
+                classCounts[trainData.get(candidate).getLabel()]++;
+                nearest[query] = candidate;
+            } else if (dist == bsfDistance) {
+                classCounts[trainData.get(candidate).getLabel()]++;
+            }
+        }
+
+        int bsfClass = -1;
+        double bsfCount = -1;
+        for (int c = 0; c < classCounts.length; c++) {
+            if (classCounts[c] > bsfCount) {
+                bsfCount = classCounts[c];
+                bsfClass = c;
+            }
+        }
+        return bsfClass;
+    }
+
+    /**
+     * DTW of a pair with the window, from the cache when it is still exact, otherwise pruned with the lower bounds
+     * or computed with early abandoning
+     *
+     * @return the exact distance, or positive infinity if it is larger than the cut-off value
+     */
+    private double distance(final int a, final int b, final int window, final double cutOffValue) {
+        final int i = Math.max(a, b);
+        final int j = Math.min(a, b);
+        pairsChecked++;
+        if (valid[i][j] <= window)
+            return lowerBound[i][j];
+        if (lowerBound[i][j] > cutOffValue)
+            return Double.POSITIVE_INFINITY;
+
+        final Sequence first = trainData.get(i);
+        final Sequence second = trainData.get(j);
+        final double[] firstData = first.getBuffer();
+        final double[] secondData = second.getBuffer();
+        final int n = first.length();
+        final int m = second.length();
+
+        double lb = DTWLowerBound.lbKim(firstData, first.getOffset(), n, secondData, second.getOffset(), m);
+        if (lb <= cutOffValue)
+            lb = Math.max(lb, DTWLowerBound.lbKeogh(firstData, first.getOffset(), n, upper[j], lower[j], window, cutOffValue));
+        if (lb <= cutOffValue)
+            lb = Math.max(lb, DTWLowerBound.lbKeogh(secondData, second.getOffset(), m, upper[i], lower[i], window, cutOffValue));
+        if (lb > cutOffValue) {
+            lowerBound[i][j] = Math.max(lowerBound[i][j], lb);
+            return Double.POSITIVE_INFINITY;
+        }
+
+        dtwComputed++;
+        final double dist = dtw.distanceWithWindowValidity(firstData, first.getOffset(), n,
+                secondData, second.getOffset(), m, window, cutOffValue);
+        final int validity = dtw.getWindowValidity();
+        if (validity < 0) {
+            // abandoned, the distance is larger than the cut-off value
+            lowerBound[i][j] = Math.max(lowerBound[i][j], Math.nextUp(cutOffValue));
+        } else {
+            lowerBound[i][j] = dist;
+            valid[i][j] = validity;
+        }
+        return dist;
+    }
+
+    /**
+     * @return { pairs checked, DTW computed }
+     */
+    long[] getStats() {
+        return new long[]{pairsChecked, dtwComputed};
+    }
+}
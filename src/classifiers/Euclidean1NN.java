@@ -21,6 +21,8 @@ import normalization.NoNormalizer;
 import normalization.Normalizer;
 import utilities.DataLoader;
 
+import java.util.Arrays;
+
 /**
  * This is a class for 1NN Euclidean distance
  *
@@ -76,6 +78,13 @@ public class Euclidean1NN extends OneNearestNeighbour {
 
     }
 
+    /**
+     * Classifier for a series arriving one point at a time
+     */
+    public PrefixClassifier prefixClassifier() {
+        return new PrefixClassifier.EuclideanPrefix(trainData);
+    }
+
     public double accuracyShort(final Sequences testData) {
         final int testSize = testData.size();
         int nCorrect = 0;
@@ -117,12 +126,12 @@ public class Euclidean1NN extends OneNearestNeighbour {
         for (int candidateIndex = 1; candidateIndex < trainData.size(); candidateIndex++) {
             candidate = trainData.get(candidateIndex);
             normFactor = Math.min(candidate.length(), queryLen);
-            dist = distance(query, candidate);
+            dist = distance(query, candidate, normalisedCutOff(bsfDistanceNorm, normFactor, bsfDistance));
             final double distNorm = dist / normFactor;
             if (distNorm < bsfDistanceNorm) {
                 bsfDistance = dist;
                 bsfDistanceNorm = distNorm;
-                classCounts = new int[trainData.numClasses()];
+                Arrays.fill(classCounts, 0);
                 classCounts[candidate.getLabel()]++;
             } else if (dist == bsfDistance) {
                 classCounts[candidate.getLabel()]++;
@@ -155,12 +164,12 @@ public class Euclidean1NN extends OneNearestNeighbour {
         for (int candidateIndex = 1; candidateIndex < trainData.size(); candidateIndex++) {
             candidate = trainData.get(candidateIndex);
             normFactor = Math.max(candidate.length(), queryLen);
-            dist = distance(query, candidate);
+            dist = distance(query, candidate, normalisedCutOff(bsfDistanceNorm, normFactor, bsfDistance));
             final double distNorm = dist / normFactor;
             if (distNorm < bsfDistanceNorm) {
                 bsfDistance = dist;
                 bsfDistanceNorm = distNorm;
-                classCounts = new int[trainData.numClasses()];
+                Arrays.fill(classCounts, 0);
                 classCounts[candidate.getLabel()]++;
             } else if (dist == bsfDistance) {
                 classCounts[candidate.getLabel()]++;
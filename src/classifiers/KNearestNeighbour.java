@@ -0,0 +1,254 @@
+/* Copyright (C) 2019 Chang Wei Tan, Francois Petitjean, Geoff Webb
+ This file is part of Varying length TSC.
+ Varying length TSC is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, version 3 of the License.
+ Varying length TSC is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with Varying length TSC.  If not, see <http://www.gnu.org/licenses/>. */
+package classifiers;
+
+import data.Sequence;
+import data.Sequences;
+
+import java.util.Arrays;
+
+/**
+ * This is a class for kNN with the distance of any of the 1NN classifiers.
+ * The k nearest neighbours of a query are kept in a bounded max-heap, and the distance to the k-th nearest
+ * neighbour is the cut-off for early abandoning. The distances go through the 1NN classifier's per-candidate hook,
+ * so lower bounds and cached transforms of the training set are used as with the 1NN classifier. Training series at the same distance as the k-th nearest
+ * neighbour are ties and all vote, so kNN with k = 1 gives the same predictions as the 1NN classifier.
+ * Votes are either one per neighbour, or weighted by the inverse of the distance.
+ * Queries can be classified in parallel with predict(testData, numThreads).
+ *
+ * @author Chang Wei
+ */
+public class KNearestNeighbour extends TimeseriesClassifier {
+    private final OneNearestNeighbour distance;
+    private final int k;
+    private final boolean weighted;
+
+    // each thread gets its own heap so that queries can be classified concurrently
+    private final ThreadLocal<NeighbourHeap> heaps;
+
+    /**
+     * @param distance 1NN classifier providing the distance, built together with this classifier
+     * @param k        number of neighbours
+     * @param weighted whether the votes are weighted by the inverse of the distance
+     */
+    public KNearestNeighbour(final OneNearestNeighbour distance, final int k, final boolean weighted) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be at least 1: " + k);
+        this.distance = distance;
+        this.k = k;
+        this.weighted = weighted;
+        this.heaps = ThreadLocal.withInitial(() -> new NeighbourHeap(k));
+    }
+
+    @Override
+    public void summary() {
+        System.out.println("[CLASSIFIER SUMMARY] Classifier: KNearestNeighbour" +
+                "\n[CLASSIFIER SUMMARY] k: " + k +
+                "\n[CLASSIFIER SUMMARY] weighted: " + weighted);
+        distance.summary();
+    }
+
+    @Override
+    public void buildClassifier(final Sequences trainData) throws Exception {
+        super.buildClassifier(trainData);
+        distance.buildClassifier(trainData);
+    }
+
+    @Override
+    public void setParamsFromParamId(final int paramId) {
+        distance.setParamsFromParamId(paramId);
+    }
+
+    @Override
+    public int classifyInstance(final Sequence query) {
+        final NeighbourHeap heap = heaps.get();
+        heap.clear();
+        final OneNearestNeighbour.BatchQuery prepared = distance.prepare(query);
+        for (int candidateIndex = 0; candidateIndex < trainData.size(); candidateIndex++) {
+            final double dist = distance.distance(prepared, candidateIndex, heap.cutOff());
+            heap.offer(dist, candidateIndex);
+        }
+        return vote(heap);
+    }
+
+    private int vote(final NeighbourHeap heap) {
+        final double[] votes = new double[trainData.numClasses()];
+        boolean exactMatch = false;
+        for (int n = 0; n < heap.numNeighbours(); n++) {
+            if (heap.neighbourDistance(n) == 0) {
+                exactMatch = true;
+                break;
+            }
+        }
+
+        double total = 0;
+        for (int n = 0; n < heap.numNeighbours(); n++) {
+            final double dist = heap.neighbourDistance(n);
+            final double weight;
+            if (!weighted)
+                weight = 1;
+            else if (exactMatch)
+                weight = dist == 0 ? 1 : 0;     // neighbours at distance 0 outvote all the others
+            else
+                weight = 1 / dist;
+            votes[trainData.get(heap.neighbourIndex(n)).getLabel()] += weight;
+            total += weight;
+        }
+        if (total == 0) {
+            // all the neighbours are at an infinite distance
+            for (int n = 0; n < heap.numNeighbours(); n++)
+                votes[trainData.get(heap.neighbourIndex(n)).getLabel()]++;
+        }
+
+        int bsfClass = -1;
+        double bsfVotes = -1;
+        for (int c = 0; c < votes.length; c++) {
+            if (votes[c] > bsfVotes) {
+                bsfVotes = votes[c];
+                bsfClass = c;
+            }
+        }
+        return bsfClass;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    public boolean isWeighted() {
+        return weighted;
+    }
+
+    /**
+     * Max-heap of the k smallest (distance, index) pairs, in primitive arrays,
+     * with the candidates tied with the largest distance kept on the side
+     */
+    static class NeighbourHeap {
+        private final int capacity;
+        private final double[] distances;
+        private final int[] indices;
+        private int size;
+
+        // candidates at the same distance as the top of the heap, only valid while tieDistance is the top distance
+        private int[] ties = new int[8];
+        private int numTies;
+        private double tieDistance = Double.NaN;
+
+        NeighbourHeap(final int capacity) {
+            this.capacity = capacity;
+            this.distances = new double[capacity];
+            this.indices = new int[capacity];
+        }
+
+        void clear() {
+            size = 0;
+            numTies = 0;
+            tieDistance = Double.NaN;
+        }
+
+        /**
+         * @return distance of the k-th nearest neighbour, or positive infinity while there are fewer than k
+         */
+        double cutOff() {
+            return size < capacity ? Double.POSITIVE_INFINITY : distances[0];
+        }
+
+        void offer(final double dist, final int index) {
+            if (size < capacity) {
+                distances[size] = dist;
+                indices[size] = index;
+                siftUp(size++);
+                return;
+            }
+
+            final double top = distances[0];
+            if (dist > top)
+                return;
+            if (dist == top) {
+                addTie(top, index);
+                return;
+            }
+
+            // the k-th nearest neighbour is replaced, it is still a tie if the new k-th one is at the same distance
+            final int removed = indices[0];
+            distances[0] = dist;
+            indices[0] = index;
+            siftDown(0);
+            if (distances[0] == top)
+                addTie(top, removed);
+            else
+                numTies = 0;
+        }
+
+        /**
+         * @return number of neighbours, the k nearest ones and their ties
+         */
+        int numNeighbours() {
+            return size + (tieValid() ? numTies : 0);
+        }
+
+        double neighbourDistance(final int n) {
+            return n < size ? distances[n] : tieDistance;
+        }
+
+        int neighbourIndex(final int n) {
+            return n < size ? indices[n] : ties[n - size];
+        }
+
+        private boolean tieValid() {
+            return size > 0 && tieDistance == distances[0];
+        }
+
+        private void addTie(final double dist, final int index) {
+            if (!(tieDistance == dist)) {
+                tieDistance = dist;
+                numTies = 0;
+            }
+            if (numTies == ties.length)
+                ties = Arrays.copyOf(ties, 2 * ties.length);
+            ties[numTies++] = index;
+        }
+
+        private void siftUp(int i) {
+            final double dist = distances[i];
+            final int index = indices[i];
+            while (i > 0) {
+                final int parent = (i - 1) >>> 1;
+                if (distances[parent] >= dist)
+                    break;
+                distances[i] = distances[parent];
+                indices[i] = indices[parent];
+                i = parent;
+            }
+            distances[i] = dist;
+            indices[i] = index;
+        }
+
+        private void siftDown(int i) {
+            final double dist = distances[i];
+            final int index = indices[i];
+            final int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && distances[child + 1] > distances[child])
+                    child++;
+                if (dist >= distances[child])
+                    break;
+                distances[i] = distances[child];
+                indices[i] = indices[child];
+                i = child;
+            }
+            distances[i] = dist;
+            indices[i] = index;
+        }
+    }
+}
@@ -11,7 +11,18 @@
  along with Varying length TSC.  If not, see <http://www.gnu.org/licenses/>. */
 package classifiers;
 
+import FileIO.ModelFile;
 import data.Sequence;
+import data.SequenceBuffer;
+import data.Sequences;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This is a super class for 1NN
@@ -19,10 +30,267 @@ import data.Sequence;
  * @author Chang Wei
  */
 public abstract class OneNearestNeighbour extends TimeseriesClassifier {
+    // relative slack on cut-offs derived from normalised distances, so that rounding never abandons a tie
+    private static final double CUTOFF_SLACK = 1e-12;
+
+    private static final int MODEL_MAGIC = 0x314e4e4d;   // "MNN1"
+    private static final int MODEL_VERSION = 2;     // 2: SSD1NN stores whether raw subsequences use the profile
+
+    // values of the queries of a tile of classify, about 64 KB, so that the queries and what is precomputed
+    // for them stay in L2 while the training set streams past them
+    private static final int TILE_VALUES = 8192;
+    private static final int MAX_TILE_QUERIES = 256;
+
+    /**
+     * A query of a tile of classify, with what the classifier precomputes for it once for all the candidates
+     */
+    protected static class BatchQuery {
+        final Sequence query;
+
+        protected BatchQuery(final Sequence query) {
+            this.query = query;
+        }
+    }
+
     public abstract double distance(final Sequence first, final Sequence second);
 
+    /**
+     * Distance with early abandoning. Implementations may return positive infinity once the distance
+     * is known to be larger than the cut-off value, but must return the exact distance when it is
+     * smaller than or equal to the cut-off value, so that ties with the best-so-far are kept.
+     */
     public abstract double distance(final Sequence first, final Sequence second, final double cutOffValue);
 
+    /**
+     * Cut-off value for a candidate when the nearest neighbour is searched on normalised distances
+     *
+     * @param bsfDistanceNorm best-so-far normalised distance
+     * @param normFactor      normalising factor of the candidate
+     * @param bsfDistance     best-so-far raw distance, candidates with the same raw distance are also ties
+     * @return cut-off value on the raw distance of the candidate
+     */
+    protected static double normalisedCutOff(final double bsfDistanceNorm, final double normFactor, final double bsfDistance) {
+        return Math.max(bsfDistance, bsfDistanceNorm * normFactor * (1 + CUTOFF_SLACK));
+    }
+
+    /**
+     * Keep the training set packed into one buffer, so that the scans over it stay in contiguous memory
+     */
+    @Override
+    public void buildClassifier(final Sequences trainData) throws Exception {
+        super.buildClassifier(trainData);
+        trainData.pack();
+    }
+
+    /**
+     * Save the trained classifier to a binary file: its class, the packed training set, and the state
+     * built from it (e.g. the envelopes of DTW1NN or the spectra of SBD1NN), see writeState
+     */
+    public void save(final String filename) throws IOException {
+        final SequenceBuffer buffer = trainData.pack();
+        final long size = ModelFile.stringBytes(getClass().getName()) + ModelFile.stringBytes(trainData.getName()) + 4 +
+                ModelFile.doublesBytes(buffer.values()) + ModelFile.intsBytes(buffer.getOffsets()) +
+                ModelFile.intsBytes(buffer.getLabels()) + stateBytes();
+
+        final ByteBuffer out = ModelFile.allocate(size, MODEL_MAGIC, MODEL_VERSION);
+        ModelFile.putString(out, getClass().getName());
+        ModelFile.putString(out, trainData.getName());
+        out.putInt(trainData.numClasses());
+        ModelFile.putDoubles(out, buffer.values());
+        ModelFile.putInts(out, buffer.getOffsets());
+        ModelFile.putInts(out, buffer.getLabels());
+        writeState(out);
+        ModelFile.write(new File(filename), out);
+    }
+
+    /**
+     * Load a classifier saved with save, ready to classify without building it again
+     *
+     * @return classifier of the class it was saved from
+     */
+    public static OneNearestNeighbour load(final String filename) throws IOException {
+        final ByteBuffer in = ModelFile.read(new File(filename), MODEL_MAGIC, MODEL_VERSION);
+        final String className = ModelFile.getString(in);
+        final OneNearestNeighbour classifier;
+        try {
+            classifier = Class.forName(className).asSubclass(OneNearestNeighbour.class).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IOException("Cannot create a " + className + " from " + filename, e);
+        }
+
+        final String name = ModelFile.getString(in);
+        final int numClasses = in.getInt();
+        final double[] values = ModelFile.getDoubles(in);
+        final int[] offsets = ModelFile.getInts(in);
+        final int[] labels = ModelFile.getInts(in);
+        if (offsets.length != labels.length + 1 || offsets[labels.length] != values.length)
+            throw new IOException("Inconsistent training set in " + filename);
+        classifier.trainData = Sequences.fromBuffer(name, new SequenceBuffer(values, offsets, labels), numClasses);
+        classifier.readState(in);
+        return classifier;
+    }
+
+    /**
+     * @return number of bytes written by writeState
+     */
+    protected long stateBytes() {
+        return 0;
+    }
+
+    /**
+     * Write the parameters and the structures built from the training set, nothing by default
+     */
+    protected void writeState(final ByteBuffer out) {
+    }
+
+    /**
+     * Read what writeState wrote, the training set is already loaded
+     */
+    protected void readState(final ByteBuffer in) throws IOException {
+    }
+
+    /**
+     * Classify a batch of queries. The queries are split into tiles, and each candidate of the training set is
+     * compared to all the queries of a tile before moving to the next one, so the candidate is read once per tile
+     * and what is precomputed for each query (see prepare) is reused for all the candidates.
+     * Each query sees the candidates in the same order as with classifyInstance, with its best-so-far distance
+     * as the cut-off, so the predictions are the same as with classifyInstance unless a subclass documents otherwise.
+     *
+     * @param queries queries
+     * @return predicted class of each query, in the same order as the queries
+     */
+    public int[] classify(final Sequences queries) {
+        return classify(queries, 1);
+    }
+
+    /**
+     * Same as classify(queries) with the tiles handed out to a fixed thread pool that is shut down afterwards
+     */
+    public int[] classify(final Sequences queries, final int numThreads) {
+        if (numThreads <= 1) {
+            final int[] predictions = new int[queries.size()];
+            final int[] tiles = tiles(queries);
+            for (int t = 0; t + 1 < tiles.length; t++)
+                classifyTile(queries, tiles[t], tiles[t + 1], predictions);
+            return predictions;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            return classify(queries, executor, numThreads);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Same as classify(queries) with the tiles handed out to the workers on the given executor
+     */
+    public int[] classify(final Sequences queries, final ExecutorService executor, final int parallelism) {
+        final int[] predictions = new int[queries.size()];
+        final int[] tiles = tiles(queries);
+        final AtomicInteger nextTile = new AtomicInteger();
+        runWorkers(queries, executor, parallelism, () -> {
+            int t;
+            while ((t = nextTile.getAndIncrement()) + 1 < tiles.length)
+                classifyTile(queries, tiles[t], tiles[t + 1], predictions);
+        });
+        return predictions;
+    }
+
+    /**
+     * @return start of each tile of queries, followed by the number of queries
+     */
+    private static int[] tiles(final Sequences queries) {
+        final int size = queries.size();
+        final int[] starts = new int[size + 1];
+        int numTiles = 0;
+        int values = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || values + queries.get(i).length() > TILE_VALUES || i - starts[numTiles - 1] == MAX_TILE_QUERIES) {
+                starts[numTiles++] = i;
+                values = 0;
+            }
+            values += queries.get(i).length();
+        }
+        starts[numTiles++] = size;
+        return Arrays.copyOf(starts, numTiles);
+    }
+
+    private void classifyTile(final Sequences queries, final int from, final int to, final int[] predictions) {
+        final int tileSize = to - from;
+        final BatchQuery[] tile = new BatchQuery[tileSize];
+        for (int q = 0; q < tileSize; q++)
+            tile[q] = prepare(queries.get(from + q));
+
+        final int[][] classCounts = new int[tileSize][trainData.numClasses()];
+        final double[] bsfDistance = new double[tileSize];
+        final double[] dist = new double[tileSize];
+        Arrays.fill(bsfDistance, Double.POSITIVE_INFINITY);
+
+        for (int candidateIndex = 0; candidateIndex < trainData.size(); candidateIndex++) {
+            distances(tile, candidateIndex, bsfDistance, dist);
+            final int label = trainData.get(candidateIndex).getLabel();
+            for (int q = 0; q < tileSize; q++) {
+                if (candidateIndex == 0 || dist[q] < bsfDistance[q]) {
+                    bsfDistance[q] = dist[q];
+                    Arrays.fill(classCounts[q], 0);
+                    classCounts[q][label]++;
+                } else if (dist[q] == bsfDistance[q]) {
+                    classCounts[q][label]++;
+                }
+            }
+        }
+
+        for (int q = 0; q < tileSize; q++) {
+            int bsfClass = -1;
+            double bsfCount = -1;
+            for (int i = 0; i < classCounts[q].length; i++) {
+                if (classCounts[q][i] > bsfCount) {
+                    bsfCount = classCounts[q][i];
+                    bsfClass = i;
+                }
+            }
+            predictions[from + q] = bsfClass;
+        }
+    }
+
+    /**
+     * Precompute what the distances of a query to all the candidates share, nothing by default
+     */
+    protected BatchQuery prepare(final Sequence query) {
+        return new BatchQuery(query);
+    }
+
+    /**
+     * Distance of a prepared query to one candidate of the training set, with early abandoning at the cut-off value
+     * as with distance(query, candidate, cutOffValue). Classifiers that keep state for each candidate,
+     * such as envelopes or transforms, override it to use that state, so that kNN searches get it too.
+     *
+     * @param query          prepared query
+     * @param candidateIndex index of the candidate in the training set
+     * @param cutOffValue    cut-off value
+     * @return distance of the query to the candidate
+     */
+    protected double distance(final BatchQuery query, final int candidateIndex, final double cutOffValue) {
+        return distance(query.query, trainData.get(candidateIndex), cutOffValue);
+    }
+
+    /**
+     * Distances of all the queries of a tile to one candidate, with early abandoning at the cut-off of each query.
+     * The cut-offs are positive infinity for the first candidate.
+     *
+     * @param tile           prepared queries
+     * @param candidateIndex index of the candidate in the training set
+     * @param cutOffValues   cut-off value of each query
+     * @param distances      distance of each query to the candidate, as with distance(query, candidateIndex, cutOffValue)
+     */
+    protected void distances(final BatchQuery[] tile, final int candidateIndex,
+                             final double[] cutOffValues, final double[] distances) {
+        for (int q = 0; q < tile.length; q++)
+            distances[q] = distance(tile[q], candidateIndex, cutOffValues[q]);
+    }
+
     @Override
     public int classifyInstance(final Sequence query) {
         int[] classCounts = new int[this.trainData.numClasses()];
@@ -35,10 +303,10 @@ public abstract class OneNearestNeighbour extends TimeseriesClassifier {
 
         for (int candidateIndex = 1; candidateIndex < trainData.size(); candidateIndex++) {
             candidate = trainData.get(candidateIndex);
-            dist = distance(query, candidate);
+            dist = distance(query, candidate, bsfDistance);
             if (dist < bsfDistance) {
                 bsfDistance = dist;
-                classCounts = new int[trainData.numClasses()];
+                Arrays.fill(classCounts, 0);
                 classCounts[candidate.getLabel()]++;
             } else if (dist == bsfDistance) {
                 classCounts[candidate.getLabel()]++;
@@ -0,0 +1,283 @@
+/* Copyright (C) 2019 Chang Wei Tan, Francois Petitjean, Geoff Webb
+ This file is part of Varying length TSC.
+ Varying length TSC is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, version 3 of the License.
+ Varying length TSC is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with Varying length TSC.  If not, see <http://www.gnu.org/licenses/>. */
+package classifiers;
+
+import data.Sequence;
+import data.Sequences;
+import utilities.GenericTools;
+
+import java.util.Arrays;
+
+/**
+ * This is a class for 1NN classification of a series that arrives one point at a time.
+ * The distance of the prefix seen so far to every training series is kept, with the state needed to extend it
+ * by one point: a running sum for Euclidean distance, the last row of the cost matrix for DTW.
+ * Each new point then costs O(1) per training series for Euclidean distance and O(window) for DTW,
+ * and a prediction with a confidence is available after each point.
+ * The prediction after t points is the same as the one of the 1NN classifier on the first t points of the series,
+ * except with open-end DTW, where the prefix is matched to the best prefix of each training series instead.
+ * <p>
+ * Create one with DTW1NN.prefixClassifier or Euclidean1NN.prefixClassifier once the classifier is built.
+ * An instance follows one series, and is not thread-safe.
+ *
+ * @author Chang Wei
+ */
+public abstract class PrefixClassifier {
+    final Sequences trainData;
+    final double[] distances;   // distance of the prefix to each training series
+    int length;                 // number of points seen
+    private final int[] classCounts;
+    private final double[] classDistances;
+
+    /**
+     * Prediction after a number of points.
+     * The confidence is 1 - d1 / d2, where d1 is the distance to the nearest neighbour and d2 the distance
+     * to the nearest neighbour of another class: 0 when both classes are as close, 1 for an exact match or when
+     * no other class can be matched.
+     */
+    public static class Prediction {
+        public final int label;
+        public final double confidence;
+        public final int length;
+        public final double distance;
+
+        Prediction(final int label, final double confidence, final int length, final double distance) {
+            this.label = label;
+            this.confidence = confidence;
+            this.length = length;
+            this.distance = distance;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d points: class %d, confidence %.4f, distance %.4f", length, label, confidence, distance);
+        }
+    }
+
+    PrefixClassifier(final Sequences trainData) {
+        if (trainData == null)
+            throw new IllegalStateException("The classifier must be built before prefix classification");
+        this.trainData = trainData;
+        this.distances = new double[trainData.size()];
+        this.classCounts = new int[trainData.numClasses()];
+        this.classDistances = new double[trainData.numClasses()];
+    }
+
+    /**
+     * Add the next point of the series
+     *
+     * @param value next point
+     * @return prediction with all the points seen so far
+     */
+    public Prediction append(final double value) {
+        update(length, value);
+        length++;
+        return prediction();
+    }
+
+    /**
+     * Add the next points of the series
+     *
+     * @return prediction with all the points seen so far
+     */
+    public Prediction append(final double[] values) {
+        if (values.length == 0)
+            return prediction();
+        for (double value : values) {
+            update(length, value);
+            length++;
+        }
+        return prediction();
+    }
+
+    /**
+     * Start again with a new series
+     */
+    public void reset() {
+        length = 0;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Prediction with the points seen so far, with the ties broken like the 1NN classifiers: all the training series
+     * at the nearest distance vote, and the first class with the most votes wins
+     */
+    public Prediction prediction() {
+        if (length == 0)
+            throw new IllegalStateException("No point has been appended yet");
+
+        Arrays.fill(classCounts, 0);
+        Arrays.fill(classDistances, Double.POSITIVE_INFINITY);
+        double bsfDistance = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < distances.length; c++) {
+            final int label = trainData.get(c).getLabel();
+            final double dist = distances[c];
+            if (dist < classDistances[label])
+                classDistances[label] = dist;
+            if (dist < bsfDistance) {
+                bsfDistance = dist;
+                Arrays.fill(classCounts, 0);
+                classCounts[label]++;
+            } else if (dist == bsfDistance) {
+                classCounts[label]++;
+            }
+        }
+
+        int bsfClass = -1;
+        double bsfCount = -1;
+        for (int i = 0; i < classCounts.length; i++) {
+            if (classCounts[i] > bsfCount) {
+                bsfCount = classCounts[i];
+                bsfClass = i;
+            }
+        }
+
+        double secondDistance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < classDistances.length; i++) {
+            if (i != bsfClass && classDistances[i] < secondDistance)
+                secondDistance = classDistances[i];
+        }
+
+        final double confidence;
+        if (bsfDistance == secondDistance)
+            confidence = 0;
+        else if (secondDistance == Double.POSITIVE_INFINITY)
+            confidence = 1;
+        else
+            confidence = 1 - bsfDistance / secondDistance;
+
+        return new Prediction(bsfClass, confidence, length, bsfDistance);
+    }
+
+    /**
+     * Update the distances to all the training series with point i of the series
+     */
+    abstract void update(final int i, final double value);
+
+    /**
+     * Prefix classification with Euclidean distance, the running sum of squared differences
+     * over the points that both series have
+     */
+    static class EuclideanPrefix extends PrefixClassifier {
+        EuclideanPrefix(final Sequences trainData) {
+            super(trainData);
+        }
+
+        @Override
+        void update(final int i, final double value) {
+            if (i == 0)
+                Arrays.fill(distances, 0);
+            for (int c = 0; c < distances.length; c++) {
+                final Sequence candidate = trainData.get(c);
+                if (i < candidate.length()) {
+                    final double diff = value - candidate.getBuffer()[candidate.getOffset() + i];
+                    distances[c] += diff * diff;
+                }
+            }
+        }
+    }
+
+    /**
+     * Prefix classification with DTW, keeping for each training series the last row of the cost matrix
+     * restricted to the Sakoe-Chiba band, with the same layout and recurrence as DTW:
+     * cells jStart to jEnd at positions 1 to jEnd - jStart + 1, with an infinite cell on each side.
+     * The distance is the last cell of the row, or the smallest cell of the row for open-end DTW.
+     */
+    static class DTWPrefix extends PrefixClassifier {
+        private final int window;
+        private final boolean openEnd;
+        private final double[][] prevRows;
+        private final double[][] currRows;
+        private final int[] prevStart;
+
+        /**
+         * @param window  warping window, Integer.MAX_VALUE for full DTW
+         * @param openEnd whether the prefix is matched to the best prefix of each training series
+         */
+        DTWPrefix(final Sequences trainData, final int window, final boolean openEnd) {
+            super(trainData);
+            this.window = window;
+            this.openEnd = openEnd;
+            this.prevRows = new double[trainData.size()][];
+            this.currRows = new double[trainData.size()][];
+            this.prevStart = new int[trainData.size()];
+            for (int c = 0; c < prevRows.length; c++) {
+                final int bandWidth = (int) Math.min(trainData.get(c).length(), 2L * window + 1);
+                prevRows[c] = new double[bandWidth + 2];
+                currRows[c] = new double[bandWidth + 2];
+            }
+        }
+
+        @Override
+        void update(final int i, final double value) {
+            for (int c = 0; c < distances.length; c++) {
+                final Sequence candidate = trainData.get(c);
+                final int m = candidate.length();
+                final double[] second = candidate.getBuffer();
+                final int offset = candidate.getOffset();
+                if (i == 0) {
+                    distances[c] = firstRow(c, value, second, offset, m);
+                    continue;
+                }
+
+                final int jStart = Math.max(0, i - window);
+                if (jStart > m - 1) {
+                    // the prefix is too long for any warping path to end within this training series
+                    distances[c] = Double.POSITIVE_INFINITY;
+                    continue;
+                }
+                final int jEnd = (int) Math.min(m - 1, (long) i + window);
+                final double[] prev = prevRows[c];
+                final double[] curr = currRows[c];
+                final int shift = jStart - prevStart[c];
+                final int len = jEnd - jStart + 1;
+                double minRow = Double.POSITIVE_INFINITY;
+
+                curr[0] = Double.POSITIVE_INFINITY;
+                for (int k = 1; k <= len; k++) {
+                    final double diff = value - second[offset + jStart + k - 1];
+                    final double cost = GenericTools.min3(prev[k + shift - 1], curr[k - 1], prev[k + shift]) + diff * diff;
+                    curr[k] = cost;
+                    if (cost < minRow)
+                        minRow = cost;
+                }
+                curr[len + 1] = Double.POSITIVE_INFINITY;
+
+                prevRows[c] = curr;
+                currRows[c] = prev;
+                prevStart[c] = jStart;
+                distances[c] = openEnd ? minRow : (jEnd == m - 1 ? curr[m - jStart] : Double.POSITIVE_INFINITY);
+            }
+        }
+
+        private double firstRow(final int c, final double value, final double[] second, final int offset, final int m) {
+            final double[] prev = prevRows[c];
+            final int end = (int) Math.min(m - 1, (long) window);
+            prev[0] = Double.POSITIVE_INFINITY;
+            double diff = value - second[offset];
+            prev[1] = diff * diff;
+            double minRow = prev[1];
+            for (int j = 1; j <= end; j++) {
+                diff = value - second[offset + j];
+                prev[j + 1] = prev[j] + diff * diff;
+                if (prev[j + 1] < minRow)
+                    minRow = prev[j + 1];
+            }
+            prev[end + 2] = Double.POSITIVE_INFINITY;
+            prevStart[c] = 0;
+            return openEnd ? minRow : (end == m - 1 ? prev[m] : Double.POSITIVE_INFINITY);
+        }
+    }
+}
@@ -11,6 +11,7 @@
  along with Varying length TSC.  If not, see <http://www.gnu.org/licenses/>. */
 package classifiers;
 
+import FileIO.ModelFile;
 import data.Sequence;
 import data.Sequences;
 import dataProcessor.DataProcessor;
@@ -20,15 +21,102 @@ import distances.SBD;
 import normalization.NoNormalizer;
 import normalization.Normalizer;
 import normalization.ZNormalizer;
+import signalProcessing.DSP;
+import signalProcessing.FFT;
 import utilities.DataLoader;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
 /**
  * This is a class for 1NN with SBD
  *
  * @author Chang Wei
  */
 public class SBD1NN extends OneNearestNeighbour {
-    private SBD distComputer = new SBD();
+    private final ThreadLocal<SBD> distComputer = ThreadLocal.withInitial(SBD::new);
+
+    // frequency-domain cache of the training set, built in buildClassifier
+    private final TreeMap<Integer, Spectra> spectra = new TreeMap<>();
+    private double[] trainNorms;
+    private boolean floatSpectra = false;
+    private long maxCacheBytes = Long.MAX_VALUE;
+    private int minQueryLength = -1;
+    private int maxQueryLength = -1;
+    private boolean pairedTransforms = false;
+    private boolean cachedAsFloat;
+    private long cacheBytes;
+    private int cachedTransforms;
+    private int uncachedTransforms;
+
+    /**
+     * Transforms of the training series zero padded to one length, only the first n/2+1 bins are kept
+     */
+    private static class Spectra {
+        final FFT fft;
+        final double[][] re;
+        final double[][] im;
+        final float[][] reFloat;
+        final float[][] imFloat;
+
+        Spectra(final int paddedLength, final int trainSize, final boolean useFloat) {
+            this.fft = FFT.plan(paddedLength);
+            if (useFloat) {
+                this.re = null;
+                this.im = null;
+                this.reFloat = new float[trainSize][];
+                this.imFloat = new float[trainSize][];
+            } else {
+                this.re = new double[trainSize][];
+                this.im = new double[trainSize][];
+                this.reFloat = null;
+                this.imFloat = null;
+            }
+        }
+
+        boolean contains(final int candidateIndex) {
+            return re != null ? re[candidateIndex] != null : reFloat[candidateIndex] != null;
+        }
+
+        void put(final int candidateIndex, final Sequence series, final double[] workRe, final double[] workIm) {
+            fft.forwardReal(series.getBuffer(), series.getOffset(), series.length(), workRe, workIm);
+            final int bins = fft.length() / 2 + 1;
+            if (re != null) {
+                re[candidateIndex] = Arrays.copyOf(workRe, bins);
+                im[candidateIndex] = Arrays.copyOf(workIm, bins);
+            } else {
+                reFloat[candidateIndex] = new float[bins];
+                imFloat[candidateIndex] = new float[bins];
+                for (int k = 0; k < bins; k++) {
+                    reFloat[candidateIndex][k] = (float) workRe[k];
+                    imFloat[candidateIndex][k] = (float) workIm[k];
+                }
+            }
+        }
+    }
+
+    /**
+     * Transform of a query for one padded length, with workspace for the inverse transform
+     */
+    private static class QuerySpectrum {
+        final double[] re;
+        final double[] im;
+        final double[] workRe;
+        final double[] workIm;
+
+        QuerySpectrum(final FFT fft, final Sequence query) {
+            final int n = fft.length();
+            this.re = new double[n];
+            this.im = new double[n];
+            this.workRe = new double[n];
+            this.workIm = new double[n];
+            fft.forwardReal(query.getBuffer(), query.getOffset(), query.length(), re, im);
+        }
+    }
 
     @Override
     public void summary() {
@@ -51,20 +139,373 @@ public class SBD1NN extends OneNearestNeighbour {
         classifier.buildClassifier(trainData);
 
         classifier.summary();
+        classifier.cacheSummary();
         System.out.println("[DTW1NN] Start Classifying");
         final double accuracy = classifier.accuracy(testData);
         System.out.println(String.format("[DTW1NN] Accuracy: %.4f", accuracy));
         System.out.println(String.format("[DTW1NN] Loss: %.4f", 1 - accuracy));
     }
 
+    /**
+     * Store the cached transforms as floats, halving the memory of the cache. Takes effect on the next build.
+     */
+    public void setFloatSpectra(final boolean floatSpectra) {
+        this.floatSpectra = floatSpectra;
+    }
+
+    /**
+     * Memory budget of the cache in bytes. Transforms are stored as floats when doubles do not fit,
+     * and the remaining candidates are transformed per query when floats do not fit either.
+     */
+    public void setMaxCacheBytes(final long maxCacheBytes) {
+        this.maxCacheBytes = maxCacheBytes;
+    }
+
+    /**
+     * Range of query lengths to build the cache for, defaults to the lengths of the training set
+     */
+    public void setQueryLengths(final int minQueryLength, final int maxQueryLength) {
+        this.minQueryLength = minQueryLength;
+        this.maxQueryLength = maxQueryLength;
+    }
+
+    /**
+     * Pair the queries of a tile of classify so that two of them share one inverse transform per candidate.
+     * Which queries are paired depends on the other queries of the tile, and a paired distance can differ
+     * from the one of classifyInstance in the last bits, so a tie can be broken differently.
+     * Off by default, so that classify gives the same predictions as classifyInstance. Not saved with the model.
+     */
+    public void setPairedTransforms(final boolean pairedTransforms) {
+        this.pairedTransforms = pairedTransforms;
+    }
+
+    public long getCacheBytes() {
+        return cacheBytes;
+    }
+
+    public void cacheSummary() {
+        System.out.println(String.format("[SBD1NN] Cached transforms: %d (%s), padded lengths %s", cachedTransforms,
+                cachedAsFloat ? "float" : "double", spectra.keySet()) +
+                String.format("\n[SBD1NN] Uncached transforms: %d", uncachedTransforms) +
+                String.format("\n[SBD1NN] Cache memory: %.2f MB", cacheBytes / 1048576.0));
+    }
+
+    @Override
+    public void buildClassifier(final Sequences trainData) throws Exception {
+        super.buildClassifier(trainData);
+        buildSpectra();
+    }
+
+    private void buildSpectra() {
+        spectra.clear();
+        cacheBytes = 0;
+        cachedTransforms = 0;
+        uncachedTransforms = 0;
+
+        final int trainSize = trainData.size();
+        trainNorms = new double[trainSize];
+        int minLen = Integer.MAX_VALUE;
+        int maxLen = 0;
+        for (int i = 0; i < trainSize; i++) {
+            final Sequence candidate = trainData.get(i);
+            trainNorms[i] = norm(candidate);
+            minLen = Math.min(minLen, candidate.length());
+            maxLen = Math.max(maxLen, candidate.length());
+        }
+        final int minQueryLen = minQueryLength > 0 ? minQueryLength : minLen;
+        final int maxQueryLen = maxQueryLength > 0 ? maxQueryLength : maxLen;
+        final int fftThreshold = distComputer.get().getFFTThreshold();
+
+        // padded lengths needed by each candidate, and the memory they take as doubles
+        final int[][] paddedLengths = new int[trainSize][];
+        long doubleBytes = 0;
+        for (int i = 0; i < trainSize; i++) {
+            final int m = trainData.get(i).length();
+            final int lo = FFT.paddedLength(m + minQueryLen - 1);
+            final int hi = FFT.paddedLength(m + maxQueryLen - 1);
+            paddedLengths[i] = new int[Integer.numberOfTrailingZeros(hi) - Integer.numberOfTrailingZeros(lo) + 1];
+            int count = 0;
+            for (int paddedLength = lo; paddedLength <= hi; paddedLength <<= 1) {
+                // the direct cross-correlation is used when both series are short
+                final int maxQuery = Math.min(maxQueryLen, paddedLength + 1 - m);
+                if (Math.max(m, maxQuery) < fftThreshold) continue;
+                paddedLengths[i][count++] = paddedLength;
+                doubleBytes += spectrumBytes(paddedLength, false);
+            }
+            paddedLengths[i] = Arrays.copyOf(paddedLengths[i], count);
+        }
+        final boolean useFloat = floatSpectra || doubleBytes > maxCacheBytes;
+        cachedAsFloat = useFloat;
+
+        for (int i = 0; i < trainSize; i++) {
+            final Sequence candidate = trainData.get(i);
+            for (final int paddedLength : paddedLengths[i]) {
+                final long bytes = spectrumBytes(paddedLength, useFloat);
+                if (cacheBytes + bytes > maxCacheBytes) {
+                    uncachedTransforms++;
+                    continue;
+                }
+                final double[] workRe = new double[paddedLength];
+                final double[] workIm = new double[paddedLength];
+                spectra.computeIfAbsent(paddedLength, k -> new Spectra(k, trainSize, useFloat))
+                        .put(i, candidate, workRe, workIm);
+                cacheBytes += bytes;
+                cachedTransforms++;
+            }
+        }
+    }
+
+    // dot product of a series with itself, read in place from the buffer of a packed set
+    private static double norm(final Sequence series) {
+        return DSP.dot(series.getBuffer(), series.getOffset(), series.getBuffer(), series.getOffset(), series.length());
+    }
+
+    private static long spectrumBytes(final int paddedLength, final boolean useFloat) {
+        return 2L * (paddedLength / 2 + 1) * (useFloat ? Float.BYTES : Double.BYTES);
+    }
+
+    @Override
+    public int classifyInstance(final Sequence query) {
+        final double queryNorm = norm(query);
+        final Map<Integer, QuerySpectrum> querySpectra = new HashMap<>(4);
+        int[] classCounts = new int[this.trainData.numClasses()];
+
+        double dist;
+
+        Sequence candidate = trainData.get(0);
+        double bsfDistance = distance(query, queryNorm, querySpectra, 0);
+        classCounts[candidate.getLabel()]++;
+
+        for (int candidateIndex = 1; candidateIndex < trainData.size(); candidateIndex++) {
+            candidate = trainData.get(candidateIndex);
+            dist = distance(query, queryNorm, querySpectra, candidateIndex);
+            if (dist < bsfDistance) {
+                bsfDistance = dist;
+                Arrays.fill(classCounts, 0);
+                classCounts[candidate.getLabel()]++;
+            } else if (dist == bsfDistance) {
+                classCounts[candidate.getLabel()]++;
+            }
+        }
+
+        int bsfClass = -1;
+        double bsfCount = -1;
+        for (int i = 0; i < classCounts.length; i++) {
+            if (classCounts[i] > bsfCount) {
+                bsfCount = classCounts[i];
+                bsfClass = i;
+            }
+        }
+        return bsfClass;
+    }
+
+    /**
+     * Query of a batch with its norm and its transforms, computed once for all the candidates
+     */
+    private static class SBDQuery extends BatchQuery {
+        final double norm;
+        final Map<Integer, QuerySpectrum> spectra = new HashMap<>(4);
+
+        SBDQuery(final Sequence query) {
+            super(query);
+            this.norm = norm(query);
+        }
+
+        QuerySpectrum spectrum(final FFT fft) {
+            return spectra.computeIfAbsent(fft.length(), k -> new QuerySpectrum(fft, query));
+        }
+    }
+
+    @Override
+    protected BatchQuery prepare(final Sequence query) {
+        return new SBDQuery(query);
+    }
+
+    /**
+     * SBD from the cached transform of the candidate, SBD has no early abandoning
+     */
+    @Override
+    protected double distance(final BatchQuery query, final int candidateIndex, final double cutOffValue) {
+        final SBDQuery q = (SBDQuery) query;
+        return distance(q.query, q.norm, q.spectra, candidateIndex);
+    }
+
+    /**
+     * With paired transforms, the queries of the tile whose transforms with the candidate have the same padded length
+     * are paired, and each pair shares one inverse transform, see SBD.crossCorrelations.
+     * Candidates that are not cached, and short pairs, are computed like classifyInstance does.
+     * SBD has no early abandoning, the cut-offs are not used.
+     */
+    @Override
+    protected void distances(final BatchQuery[] tile, final int candidateIndex,
+                             final double[] cutOffValues, final double[] distances) {
+        if (!pairedTransforms) {
+            super.distances(tile, candidateIndex, cutOffValues, distances);
+            return;
+        }
+        final int m = trainData.get(candidateIndex).length();
+        final int fftThreshold = distComputer.get().getFFTThreshold();
+        final int[] pending = new int[Integer.SIZE];     // query waiting for a pair, for each log2 of padded length
+        Arrays.fill(pending, -1);
+
+        for (int q = 0; q < tile.length; q++) {
+            final SBDQuery query = (SBDQuery) tile[q];
+            final int n = query.query.length();
+            final int paddedLength = FFT.paddedLength(n + m - 1);
+            final Spectra cached = spectra.get(paddedLength);
+            if (Math.max(n, m) < fftThreshold || cached == null || !cached.contains(candidateIndex)) {
+                distances[q] = distance(query.query, query.norm, query.spectra, candidateIndex);
+                continue;
+            }
+
+            final int slot = Integer.numberOfTrailingZeros(paddedLength);
+            if (pending[slot] < 0) {
+                pending[slot] = q;
+                continue;
+            }
+            final int other = pending[slot];
+            pending[slot] = -1;
+            final SBDQuery first = (SBDQuery) tile[other];
+            final QuerySpectrum a = first.spectrum(cached.fft);
+            final QuerySpectrum c = query.spectrum(cached.fft);
+            if (cached.re != null)
+                SBD.crossCorrelations(cached.fft, a.re, a.im, c.re, c.im,
+                        cached.re[candidateIndex], cached.im[candidateIndex], a.workRe, a.workIm);
+            else
+                SBD.crossCorrelations(cached.fft, a.re, a.im, c.re, c.im,
+                        cached.reFloat[candidateIndex], cached.imFloat[candidateIndex], a.workRe, a.workIm);
+            distances[other] = SBD.distance(a.workRe, paddedLength, first.query.length(), m, first.norm, trainNorms[candidateIndex]);
+            distances[q] = SBD.distance(a.workIm, paddedLength, n, m, query.norm, trainNorms[candidateIndex]);
+        }
+
+        for (int q : pending) {
+            if (q >= 0) {
+                final SBDQuery query = (SBDQuery) tile[q];
+                distances[q] = distance(query.query, query.norm, query.spectra, candidateIndex);
+            }
+        }
+    }
+
+    /**
+     * SBD between a query and a training series, from the cached transform of the training series when there is one
+     */
+    private double distance(final Sequence query, final double queryNorm,
+                            final Map<Integer, QuerySpectrum> querySpectra, final int candidateIndex) {
+        final Sequence candidate = trainData.get(candidateIndex);
+        final int n = query.length();
+        final int m = candidate.length();
+        final SBD sbd = distComputer.get();
+        if (Math.max(n, m) < sbd.getFFTThreshold())
+            return sbd.distance(query, candidate);
+
+        final Spectra cached = spectra.get(FFT.paddedLength(n + m - 1));
+        if (cached == null || !cached.contains(candidateIndex))
+            return sbd.distance(query, candidate);
+
+        final QuerySpectrum q = querySpectra.computeIfAbsent(cached.fft.length(),
+                k -> new QuerySpectrum(cached.fft, query));
+        if (cached.re != null)
+            return SBD.distance(cached.fft, q.re, q.im, n, queryNorm,
+                    cached.re[candidateIndex], cached.im[candidateIndex], m, trainNorms[candidateIndex],
+                    q.workRe, q.workIm);
+        return SBD.distance(cached.fft, q.re, q.im, n, queryNorm,
+                cached.reFloat[candidateIndex], cached.imFloat[candidateIndex], m, trainNorms[candidateIndex],
+                q.workRe, q.workIm);
+    }
+
     @Override
     public double distance(Sequence first, Sequence second) {
-        return distComputer.distance(first, second);
+        return distComputer.get().distance(first, second);
     }
 
     @Override
     public double distance(Sequence first, Sequence second, double cutOffValue) {
-        return distComputer.distance(first, second);
+        return distComputer.get().distance(first, second);
+    }
+
+    /**
+     * State: the cache settings, the norms of the training series, and the cached spectra of each padded length
+     */
+    @Override
+    protected long stateBytes() {
+        long size = 1 + 8 + 4 + 4 + 1 + 8 + 4 + 4 + ModelFile.doublesBytes(trainNorms) + 4;
+        for (Spectra cached : spectra.values()) {
+            size += 4;
+            for (int i = 0; i < trainNorms.length; i++) {
+                size += 1;
+                if (!cached.contains(i)) continue;
+                size += cached.re != null ?
+                        ModelFile.doublesBytes(cached.re[i]) + ModelFile.doublesBytes(cached.im[i]) :
+                        ModelFile.floatsBytes(cached.reFloat[i]) + ModelFile.floatsBytes(cached.imFloat[i]);
+            }
+        }
+        return size;
+    }
+
+    @Override
+    protected void writeState(final ByteBuffer out) {
+        out.put((byte) (floatSpectra ? 1 : 0));
+        out.putLong(maxCacheBytes);
+        out.putInt(minQueryLength);
+        out.putInt(maxQueryLength);
+        out.put((byte) (cachedAsFloat ? 1 : 0));
+        out.putLong(cacheBytes);
+        out.putInt(cachedTransforms);
+        out.putInt(uncachedTransforms);
+        ModelFile.putDoubles(out, trainNorms);
+
+        out.putInt(spectra.size());
+        for (Map.Entry<Integer, Spectra> entry : spectra.entrySet()) {
+            final Spectra cached = entry.getValue();
+            out.putInt(entry.getKey());
+            for (int i = 0; i < trainNorms.length; i++) {
+                out.put((byte) (cached.contains(i) ? 1 : 0));
+                if (!cached.contains(i)) continue;
+                if (cached.re != null) {
+                    ModelFile.putDoubles(out, cached.re[i]);
+                    ModelFile.putDoubles(out, cached.im[i]);
+                } else {
+                    ModelFile.putFloats(out, cached.reFloat[i]);
+                    ModelFile.putFloats(out, cached.imFloat[i]);
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void readState(final ByteBuffer in) throws IOException {
+        floatSpectra = in.get() != 0;
+        maxCacheBytes = in.getLong();
+        minQueryLength = in.getInt();
+        maxQueryLength = in.getInt();
+        cachedAsFloat = in.get() != 0;
+        cacheBytes = in.getLong();
+        cachedTransforms = in.getInt();
+        uncachedTransforms = in.getInt();
+        trainNorms = ModelFile.getDoubles(in);
+        final int trainSize = trainData.size();
+        if (trainNorms.length != trainSize)
+            throw new IOException("Norms for " + trainNorms.length + " series, the training set has " + trainSize);
+
+        spectra.clear();
+        final int numSpectra = in.getInt();
+        for (int s = 0; s < numSpectra; s++) {
+            final int paddedLength = in.getInt();
+            if (paddedLength <= 0 || Integer.bitCount(paddedLength) != 1)
+                throw new IOException("Invalid padded length of the spectra: " + paddedLength);
+            final Spectra cached = new Spectra(paddedLength, trainSize, cachedAsFloat);
+            for (int i = 0; i < trainSize; i++) {
+                if (in.get() == 0) continue;
+                if (cachedAsFloat) {
+                    cached.reFloat[i] = ModelFile.getFloats(in);
+                    cached.imFloat[i] = ModelFile.getFloats(in);
+                } else {
+                    cached.re[i] = ModelFile.getDoubles(in);
+                    cached.im[i] = ModelFile.getDoubles(in);
+                }
+            }
+            spectra.put(paddedLength, cached);
+        }
     }
 
     @Override
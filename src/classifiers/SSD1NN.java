@@ -15,11 +15,14 @@ import data.Sequence;
 import data.Sequences;
 import dataProcessor.DataProcessor;
 import dataProcessor.SuffixNoisePadder;
+import distances.MASS;
 import distances.SubsequenceDistance;
 import normalization.Normalizer;
 import normalization.ZNormalizer;
 import utilities.DataLoader;
 
+import java.nio.ByteBuffer;
+
 /**
  * This is a class for 1NN Subsequence Distance
  *
@@ -27,6 +30,9 @@ import utilities.DataLoader;
  */
 public class SSD1NN extends OneNearestNeighbour {
     private SubsequenceDistance distComputer = new SubsequenceDistance();
+    private final ThreadLocal<MASS> massComputer = ThreadLocal.withInitial(MASS::new);
+    private boolean zNormalise = false;
+    private boolean rawProfile = false;
 
     public void summary() {
         System.out.println("[CLASSIFIER SUMMARY] Classifier: SSD1NN");
@@ -54,16 +60,77 @@ public class SSD1NN extends OneNearestNeighbour {
         System.out.println(String.format("[Euclidean1NN] Loss: %.4f", 1 - accuracy));
     }
 
+    /**
+     * Compare z-normalised subsequences instead of the raw values
+     */
+    public void setZNormalise(final boolean zNormalise) {
+        this.zNormalise = zNormalise;
+    }
+
+    /**
+     * Use the MASS distance profile for the raw subsequences of long pairs instead of the direct scan. Off by default.
+     * The profile only selects the offsets to score, which are rescored exactly (see MASS.exactMatch),
+     * so the distances stay the same as with the direct scan and the cut-off is honoured.
+     */
+    public void setRawProfile(final boolean rawProfile) {
+        this.rawProfile = rawProfile;
+    }
+
+    /**
+     * @return distance and offset of the best alignment of the shorter series in the longer one
+     */
+    public MASS.Result bestMatch(final Sequence first, final Sequence second) {
+        return bestMatch(first, second, Double.POSITIVE_INFINITY);
+    }
+
+    private MASS.Result bestMatch(final Sequence first, final Sequence second, final double cutOffValue) {
+        if (zNormalise)
+            return massComputer.get().bestMatch(first.getBuffer(), first.getOffset(), first.length(),
+                    second.getBuffer(), second.getOffset(), second.length(), true);
+        return massComputer.get().exactMatch(first.getBuffer(), first.getOffset(), first.length(),
+                second.getBuffer(), second.getOffset(), second.length(), cutOffValue);
+    }
+
+    // z-normalised subsequences always need the distance profile, raw ones only use it when asked for on long pairs
+    private boolean useProfile(final Sequence first, final Sequence second) {
+        return zNormalise || (rawProfile && MASS.useFFT(Math.max(first.length(), second.length()),
+                Math.min(first.length(), second.length())));
+    }
+
     @Override
     public double distance(final Sequence first, final Sequence second) {
+        if (useProfile(first, second))
+            return bestMatch(first, second).distance;
         return distComputer.distance(first, second);
     }
 
     @Override
     public double distance(final Sequence first, final Sequence second, final double cutOffValue) {
+        if (useProfile(first, second))
+            return bestMatch(first, second, cutOffValue).distance;
         return distComputer.distance(first, second, cutOffValue);
     }
 
+    /**
+     * State: whether the subsequences are z-normalised, and whether the raw ones use the distance profile
+     */
+    @Override
+    protected long stateBytes() {
+        return 2;
+    }
+
+    @Override
+    protected void writeState(final ByteBuffer out) {
+        out.put((byte) (zNormalise ? 1 : 0));
+        out.put((byte) (rawProfile ? 1 : 0));
+    }
+
+    @Override
+    protected void readState(final ByteBuffer in) {
+        zNormalise = in.get() != 0;
+        rawProfile = in.get() != 0;
+    }
+
     @Override
     public void setParamsFromParamId(final int paramId) {
 
@@ -14,6 +14,15 @@ package classifiers;
 import data.Sequence;
 import data.Sequences;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
 /**
  * This is a super class for time series classifier
  *
@@ -43,5 +52,105 @@ public abstract class TimeseriesClassifier {
         return 1.0 * nCorrect / testSize;
     }
 
+    public double accuracy(final Sequences testData, final int numThreads) {
+        return accuracy(testData, predict(testData, numThreads));
+    }
+
+    public double accuracy(final Sequences testData, final ExecutorService executor, final int parallelism) {
+        return accuracy(testData, predict(testData, executor, parallelism));
+    }
+
+    public static double accuracy(final Sequences testData, final int[] predictions) {
+        final int testSize = testData.size();
+        int nCorrect = 0;
+
+        for (int i = 0; i < testSize; i++) {
+            if (predictions[i] == testData.get(i).getLabel()) nCorrect++;
+        }
+
+        return 1.0 * nCorrect / testSize;
+    }
+
+    public int[] predict(final Sequences testData) {
+        final int[] predictions = new int[testData.size()];
+        for (int i = 0; i < predictions.length; i++)
+            predictions[i] = classifyInstance(testData.get(i));
+
+        return predictions;
+    }
+
+    /**
+     * Classify the test set with a fixed thread pool that is shut down afterwards
+     *
+     * @param testData   test set
+     * @param numThreads number of threads
+     * @return predicted class of each query, in the same order as the test set
+     */
+    public int[] predict(final Sequences testData, final int numThreads) {
+        if (numThreads <= 1)
+            return predict(testData);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            return predict(testData, executor, numThreads);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Classify the test set on the given executor. Queries are handed out one at a time
+     * to the workers, so series of different lengths are balanced across threads.
+     * The classifier must be built (and its parameters set) before calling this method.
+     *
+     * @param testData    test set
+     * @param executor    executor to run the workers on
+     * @param parallelism number of workers to submit to the executor
+     * @return predicted class of each query, in the same order as the test set
+     */
+    public int[] predict(final Sequences testData, final ExecutorService executor, final int parallelism) {
+        return predict(testData, executor, parallelism, this::classifyInstance);
+    }
+
+    protected final int[] predict(final Sequences testData, final ExecutorService executor, final int parallelism,
+                                  final ToIntFunction<Sequence> classifier) {
+        final int testSize = testData.size();
+        final int[] predictions = new int[testSize];
+        final AtomicInteger nextQuery = new AtomicInteger();
+
+        runWorkers(testData, executor, parallelism, () -> {
+            int i;
+            while ((i = nextQuery.getAndIncrement()) < testSize)
+                predictions[i] = classifier.applyAsInt(testData.get(i));
+        });
+
+        return predictions;
+    }
+
+    /**
+     * Submit parallelism copies of the worker to the executor and wait for all of them,
+     * cancelling the others if one fails
+     */
+    protected static void runWorkers(final Sequences testData, final ExecutorService executor, final int parallelism,
+                                     final Runnable worker) {
+        final List<Future<?>> workers = new ArrayList<>(parallelism);
+        for (int t = 0; t < Math.max(1, parallelism); t++)
+            workers.add(executor.submit(worker));
+
+        try {
+            for (Future<?> w : workers)
+                w.get();
+        } catch (InterruptedException e) {
+            for (Future<?> w : workers)
+                w.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while classifying " + testData.getName(), e);
+        } catch (ExecutionException e) {
+            for (Future<?> w : workers)
+                w.cancel(true);
+            throw new RuntimeException("Failed to classify " + testData.getName(), e.getCause());
+        }
+    }
+
     public abstract int classifyInstance(final Sequence sequence);
 }
@@ -24,7 +24,7 @@ import utilities.DataLoader;
  * @author Chang Wei
  */
 public class USEuclidean1NN extends OneNearestNeighbour {
-    private UniformScalingEuclidean distComputer = new UniformScalingEuclidean();
+    private final ThreadLocal<UniformScalingEuclidean> distComputer = ThreadLocal.withInitial(UniformScalingEuclidean::new);
 
     public void summary() {
         System.out.println("[CLASSIFIER SUMMARY] Classifier: USEuclidean1NN");
@@ -53,17 +53,17 @@ public class USEuclidean1NN extends OneNearestNeighbour {
     }
 
     public double[] getScaledSeries() {
-        return distComputer.scaledSeries;
+        return distComputer.get().getScaledSeries();
     }
 
     @Override
     public double distance(final Sequence first, final Sequence second) {
-        return distComputer.distance(first, second);
+        return distComputer.get().distance(first, second);
     }
 
     @Override
     public double distance(final Sequence first, final Sequence second, final double cutOffValue) {
-        return distComputer.distance(first, second, cutOffValue);
+        return distComputer.get().distance(first, second, cutOffValue);
     }
 
     @Override
@@ -12,42 +12,85 @@
 
 package data;
 
+import java.util.Arrays;
+
 /**
- * This class describes the class for a time series (sequence)
+ * This class describes the class for a time series (sequence).
+ * A sequence either owns its values or is a view on a slice of the buffer of a packed set of sequences.
  *
  * @author Chang Wei
  */
 public class Sequence {
     private int label;
-    private double[] data;
+    private double[] data;  // own values, or the buffer of a packed set
+    private int offset;     // start of the series in data
+    private int length;     // length of the series
 
     public Sequence(final double[] data, final int label) {
         setData(data);
         setLabel(label);
     }
 
+    /**
+     * View on a slice of a buffer, such as a packed set read from a file
+     */
+    Sequence(final double[] buffer, final int offset, final int length, final int label) {
+        this.data = buffer;
+        this.offset = offset;
+        this.length = length;
+        this.label = label;
+    }
+
     public final void setLabel(final int label) {
         this.label = label;
     }
 
     public final void setData(final double[] data) {
         this.data = data;
+        this.offset = 0;
+        this.length = data.length;
+    }
+
+    /**
+     * Turn this sequence into a view on a slice of a buffer holding the same values
+     */
+    final void setView(final double[] buffer, final int offset) {
+        this.data = buffer;
+        this.offset = offset;
     }
 
     public final int getLabel() {
         return this.label;
     }
 
+    /**
+     * @return the values of the series, a copy if the series is a view on a buffer (see Sequences.pack),
+     * in which case changes made to the copy are not written back to the series.
+     * Distances should read getBuffer() from getOffset() instead, to avoid the copy.
+     */
     public final double[] getData() {
+        if (offset == 0 && length == data.length)
+            return this.data;
+        return Arrays.copyOfRange(data, offset, offset + length);
+    }
+
+    /**
+     * @return the array holding the values, starting at getOffset(), without copying
+     */
+    public final double[] getBuffer() {
         return this.data;
     }
 
+    public final int getOffset() {
+        return this.offset;
+    }
+
     public final int length() {
-        return this.data.length;
+        return this.length;
     }
 
     public final double value(final int i) {
-        return this.data[i];
+        return this.data[offset + i];
     }
 
     public final void printMatlab(final String name) {
@@ -57,9 +100,9 @@ public class Sequence {
 
     public final String getMatlabVector(final String name) {
         // get the series in Matlab vector
-        StringBuilder str = new StringBuilder(name + "=[" + data[0]);
-        for (int i = 1; i < data.length; i++) {
-            str.append(",").append(data[i]);
+        StringBuilder str = new StringBuilder(name + "=[" + value(0));
+        for (int i = 1; i < length; i++) {
+            str.append(",").append(value(i));
         }
         str.append("];");
         return str.toString();
@@ -67,20 +110,20 @@ public class Sequence {
 
     public final String getUCRVector(final int maxLen, final String delimiter) {
         // get the series in UCR archive format
-        StringBuilder str = new StringBuilder(label + delimiter + data[0]);
-        for (int i = 1; i < data.length; i++) {
-            str.append(delimiter).append(data[i]);
+        StringBuilder str = new StringBuilder(label + delimiter + value(0));
+        for (int i = 1; i < length; i++) {
+            str.append(delimiter).append(value(i));
         }
-        for (int i = data.length; i < maxLen; i++) {
+        for (int i = length; i < maxLen; i++) {
             str.append(delimiter).append("NaN");
         }
         return str.toString();
     }
 
     public final String toString() {
-        StringBuilder str = new StringBuilder("s=[" + data[0]);
-        for (int i = 1; i < data.length; i++) {
-            str.append(",").append(data[i]);
+        StringBuilder str = new StringBuilder("s=[" + value(0));
+        for (int i = 1; i < length; i++) {
+            str.append(",").append(value(i));
         }
         str.append("];");
         return str.toString();
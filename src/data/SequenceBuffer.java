@@ -0,0 +1,132 @@
+/* Copyright (C) 2019 Chang Wei Tan, Francois Petitjean, Geoff Webb
+ This file is part of Varying length TSC.
+ Varying length TSC is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, version 3 of the License.
+ Varying length TSC is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with Varying length TSC.  If not, see <http://www.gnu.org/licenses/>. */
+package data;
+
+import java.util.List;
+
+/**
+ * This class describes the columnar storage of a set of sequences:
+ * the values of all the series back to back in one array, with their offsets, lengths and labels.
+ * The sequences of a packed set are views on this buffer.
+ *
+ * @author Chang Wei
+ */
+public class SequenceBuffer {
+    private final double[] values;  // values of all the series
+    private final int[] offsets;    // start of series i in values, with offsets[size] = values.length
+    private final int[] lengths;    // length of each series
+    private final int[] labels;     // label of each series
+    private final int maxLen, minLen;
+
+    public SequenceBuffer(final double[] values, final int[] offsets, final int[] labels) {
+        this.values = values;
+        this.offsets = offsets;
+        this.labels = labels;
+        this.lengths = new int[labels.length];
+        int maxLen = 0;
+        int minLen = labels.length > 0 ? Integer.MAX_VALUE : 0;
+        for (int i = 0; i < labels.length; i++) {
+            lengths[i] = offsets[i + 1] - offsets[i];
+            maxLen = Math.max(maxLen, lengths[i]);
+            minLen = Math.min(minLen, lengths[i]);
+        }
+        this.maxLen = maxLen;
+        this.minLen = minLen;
+    }
+
+    /**
+     * Copy the values of the sequences into one buffer and turn the sequences into views on it
+     *
+     * @param sequences sequences to pack
+     * @return buffer of the sequences
+     */
+    static SequenceBuffer pack(final List<Sequence> sequences) {
+        final int size = sequences.size();
+        final int[] offsets = new int[size + 1];
+        final int[] labels = new int[size];
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            offsets[i] = (int) total;
+            total += sequences.get(i).length();
+            if (total > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("Too many values to pack into one array: " + total);
+            labels[i] = sequences.get(i).getLabel();
+        }
+        offsets[size] = (int) total;
+
+        final double[] values = new double[(int) total];
+        for (int i = 0; i < size; i++) {
+            final Sequence sequence = sequences.get(i);
+            System.arraycopy(sequence.getBuffer(), sequence.getOffset(), values, offsets[i], sequence.length());
+        }
+        for (int i = 0; i < size; i++) {
+            sequences.get(i).setView(values, offsets[i]);
+        }
+        return new SequenceBuffer(values, offsets, labels);
+    }
+
+    /**
+     * Copy the labels back from the sequences after they were changed
+     */
+    void syncLabels(final List<Sequence> sequences) {
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = sequences.get(i).getLabel();
+        }
+    }
+
+    public final double[] values() {
+        return values;
+    }
+
+    public final int offset(final int i) {
+        return offsets[i];
+    }
+
+    public final int length(final int i) {
+        return lengths[i];
+    }
+
+    public final int label(final int i) {
+        return labels[i];
+    }
+
+    public final int[] getLabels() {
+        return labels;
+    }
+
+    public final int[] getLengths() {
+        return lengths;
+    }
+
+    public final int[] getOffsets() {
+        return offsets;
+    }
+
+    public final int size() {
+        return labels.length;
+    }
+
+    public final int maxLength() {
+        return maxLen;
+    }
+
+    public final int minLength() {
+        return minLen;
+    }
+
+    /**
+     * @return approximate memory held by the buffer in bytes
+     */
+    public final long memoryBytes() {
+        return 8L * values.length + 4L * (offsets.length + lengths.length + labels.length);
+    }
+}
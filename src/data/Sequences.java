@@ -14,6 +14,7 @@ package data;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Random;
 
 /**
@@ -29,6 +30,7 @@ public class Sequences {
     private int numClass;               // number of classes in the set
     private int maxLen, minLen;         // max and min lengths
     private int minClass;               // smallest class in the set
+    private SequenceBuffer packed;      // columnar copy of the data, null until packed or after a change
 
     public Sequences() {
         this.data = new ArrayList<>();
@@ -62,6 +64,36 @@ public class Sequences {
         this.data = new ArrayList<Sequence>(capacity);
     }
 
+    /**
+     * Set of views on a packed buffer, such as one read from a file, whose labels are already 0 to numClasses - 1
+     *
+     * @param name       name of the set
+     * @param buffer     values, offsets and labels of the series
+     * @param numClasses number of classes
+     * @return set packed into the buffer
+     */
+    public static Sequences fromBuffer(final String name, final SequenceBuffer buffer, final int numClasses) {
+        final Sequences sequences = new Sequences(buffer, numClasses);
+        sequences.setName(name);
+        return sequences;
+    }
+
+    private Sequences(final SequenceBuffer buffer, final int numClasses) {
+        final int size = buffer.size();
+        this.data = new ArrayList<>(size);
+        this.lengths = new ArrayList<>();
+        final HashSet<Integer> distinctLengths = new HashSet<>();
+        for (int i = 0; i < size; i++) {
+            data.add(new Sequence(buffer.values(), buffer.offset(i), buffer.length(i), buffer.label(i)));
+            if (distinctLengths.add(buffer.length(i))) lengths.add(buffer.length(i));
+        }
+        this.maxLen = buffer.maxLength();
+        this.minLen = buffer.minLength();
+        this.numClass = numClasses;
+        this.minClass = 0;
+        this.packed = buffer;
+    }
+
     public final void setTrainTest(final String trainTest) {
         this.trainTest = trainTest.toUpperCase();
     }
@@ -83,6 +115,7 @@ public class Sequences {
             final int label = datum.getLabel();
             datum.setLabel(Math.min(numClass - 1, label - minClass));
         }
+        if (packed != null) packed.syncLabels(data);
     }
 
     public final void setLengths(final ArrayList<Integer> lengths, final int maxLen, final int minLen) {
@@ -98,18 +131,44 @@ public class Sequences {
 
     public final void add(final Sequence instance) {
         this.data.add(instance);
+        this.packed = null;
     }
 
     public final void set(final int index, final Sequence instance) {
         this.data.set(index, instance);
+        this.packed = null;
     }
 
     public final void remove(final int i) {
         this.data.remove(i);
+        this.packed = null;
     }
 
     public final void remove(final Sequence instance) {
         this.data.remove(instance);
+        this.packed = null;
+    }
+
+    /**
+     * Copy the series into one contiguous buffer, after which the sequences of this set are views on it.
+     * The Sequence objects of the caller are turned into views in place: from then on Sequence.getData() returns
+     * a copy, and changes made to that copy are not written back to the series.
+     * Adding, setting or removing sequences drops the buffer, but the existing views stay valid.
+     * Changes made directly to the list returned by getData() are not tracked.
+     *
+     * @return columnar storage of the set
+     */
+    public final SequenceBuffer pack() {
+        if (packed == null)
+            packed = SequenceBuffer.pack(data);
+        return packed;
+    }
+
+    /**
+     * @return columnar storage of the set, null if the set is not packed
+     */
+    public final SequenceBuffer getBuffer() {
+        return packed;
     }
 
     public final String getTrainTest() {
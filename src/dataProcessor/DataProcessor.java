@@ -11,6 +11,12 @@
  along with Varying length TSC.  If not, see <http://www.gnu.org/licenses/>. */
 package dataProcessor;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
 import java.util.Random;
 
 /**
@@ -20,6 +26,57 @@ import java.util.Random;
  */
 public abstract class DataProcessor {
     Random random = new Random(100);
+    private boolean sharedRandom = false;
 
     public abstract double[] process(final double[] data, final int maxLen);
+
+    /**
+     * Use a random generator given by the caller, which may also be used elsewhere
+     */
+    final void useSharedRandom(final Random random) {
+        this.random = random;
+        this.sharedRandom = true;
+    }
+
+    /**
+     * Whether the random generator was given by the caller. Its state cannot be restored in place,
+     * so the results of such a processor are not cached, see setRandomState
+     */
+    public boolean hasSharedRandom() {
+        return sharedRandom;
+    }
+
+    /**
+     * @return serialised state of the random generator, which determines the result of the next process calls
+     */
+    public byte[] getRandomState() {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(random);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Replace the random generator by one in the given state, as left by a cached result.
+     * java.util.Random cannot be put back into a state in place, so this is only allowed when the processor owns
+     * its generator: a generator given by the caller would stop being shared, and the caller would see
+     * a different sequence after a cache hit than after a miss.
+     *
+     * @param state serialised state from getRandomState()
+     * @throws IllegalStateException if the random generator was given by the caller
+     */
+    public void setRandomState(final byte[] state) {
+        if (sharedRandom)
+            throw new IllegalStateException("Cannot restore the state of a random generator given by the caller");
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(state))) {
+            random = (Random) in.readObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 }
@@ -67,7 +67,7 @@ public class PrefixSuffixNoisePadder extends DataProcessor {
     }
 
     public PrefixSuffixNoisePadder(final Random random) {
-        this.random = random;
+        useSharedRandom(random);
     }
 
     public PrefixSuffixNoisePadder(final long seed) {
@@ -68,7 +68,7 @@ public class SuffixNoisePadder extends DataProcessor {
     }
 
     public SuffixNoisePadder(final Random random) {
-        this.random = random;
+        useSharedRandom(random);
     }
 
     public SuffixNoisePadder(final long seed) {
@@ -22,9 +22,15 @@ import utilities.GenericTools;
  * @author Chang Wei
  */
 public class DTW {
-    private final static int MAX_SEQ_LENGTH = 4000;         // maximum sequence length possible
-    private final static double[][] matrixD = new double[MAX_SEQ_LENGTH][MAX_SEQ_LENGTH];
-    private final static int[][] pathD = new int[MAX_SEQ_LENGTH][MAX_SEQ_LENGTH];
+    // workspace owned by this instance, grown on demand to the lengths of the series being compared.
+    // An instance is not thread-safe, use one instance per thread (or per caller).
+    private double[] prevRow = new double[0];   // rolling rows, used when the warping path is not needed
+    private double[] currRow = new double[0];
+    private double[] matrixD = new double[0];   // flattened cost matrix, only used when the warping path is needed
+    private byte[] pathD = new byte[0];         // 0: diagonal, 1: from (i-1,j), 2: from (i,j-1)
+    private int[] prevAux = new int[0];         // rolling rows of the length, or the largest |i-j|, of the warping path to each cell
+    private int[] currAux = new int[0];
+    private int windowValidity = -1;            // smallest window giving the same distance as the last call to distanceWithWindowValidity
 
     public static void main(String[] args) {
         System.out.println("[DTW] Test begins");
@@ -52,223 +58,465 @@ public class DTW {
     }
 
     public double distance(final Sequence first, final Sequence second) {
-        final int n = first.length();
-        final int m = second.length();
+        return distance(first, second, fullWindow(first, second), Double.POSITIVE_INFINITY);
+    }
+
+    public double distance(final Sequence first, final Sequence second, final int windowSize) {
+        return distance(first, second, windowSize, Double.POSITIVE_INFINITY);
+    }
+
+    public double distance(final Sequence first, final Sequence second, final double cutOffValue) {
+        return distance(first, second, fullWindow(first, second), cutOffValue);
+    }
+
+    public double distance(final double[] first, final double[] second, final double cutOffValue) {
+        return distance(first, second, Math.max(first.length, second.length), cutOffValue);
+    }
+
+    public double distance(final Sequence first, final Sequence second, final int windowSize, final double cutOffValue) {
+        return distance(first.getBuffer(), first.getOffset(), first.length(),
+                second.getBuffer(), second.getOffset(), second.length(), windowSize, cutOffValue);
+    }
+
+    /**
+     * Compute DTW with a Sakoe-Chiba window using two rolling rows of the cost matrix.
+     * Returns positive infinity if every cell of a row exceeds the cut-off value, or if the
+     * last cell is outside of the window. A distance equal to the cut-off value is returned as is,
+     * so that ties with the best-so-far are not lost.
+     *
+     * @param first       first series
+     * @param second      second series
+     * @param windowSize  warping window, use the length of the longer series for full DTW
+     * @param cutOffValue cut-off value for early abandoning
+     * @return DTW distance
+     */
+    public double distance(final double[] first, final double[] second, final int windowSize, final double cutOffValue) {
+        return distance(first, 0, first.length, second, 0, second.length, windowSize, cutOffValue);
+    }
+
+    /**
+     * Same as distance(first, second, windowSize, cutOffValue) on slices of arrays,
+     * such as sequences packed into one buffer
+     *
+     * @param first        array holding the first series
+     * @param firstOffset  start of the first series
+     * @param n            length of the first series
+     * @param second       array holding the second series
+     * @param secondOffset start of the second series
+     * @param m            length of the second series
+     * @param windowSize   warping window
+     * @param cutOffValue  cut-off value for early abandoning
+     * @return DTW distance
+     */
+    public double distance(final double[] first, final int firstOffset, final int n,
+                           final double[] second, final int secondOffset, final int m,
+                           final int windowSize, final double cutOffValue) {
+        return bandDistance(first, firstOffset, n, second, secondOffset, m, windowSize, windowSize, cutOffValue);
+    }
+
+    /**
+     * DTW with a window that follows the diagonal of the cost matrix for series of different lengths:
+     * cell (i,j) is in the band if i - windowSize <= j <= i + (m - n) + windowSize when m >= n (and the other
+     * way round when n > m), so there is always a warping path, whatever the difference of lengths.
+     * It is the same as distance(first, firstOffset, n, second, secondOffset, m, windowSize, cutOffValue)
+     * for series of the same length.
+     */
+    public double distanceAlongDiagonal(final double[] first, final int firstOffset, final int n,
+                                        final double[] second, final int secondOffset, final int m,
+                                        final int windowSize, final double cutOffValue) {
+        final int below = windowSize + Math.max(0, n - m);
+        final int above = windowSize + Math.max(0, m - n);
+        return bandDistance(first, firstOffset, n, second, secondOffset, m, below, above, cutOffValue);
+    }
+
+    /**
+     * DTW restricted to the band i - below <= j <= i + above, using two rolling rows that only hold the band.
+     * Row i holds cells jStart(i) to jEnd(i) at positions 1 to jEnd(i) - jStart(i) + 1, with an infinite
+     * cell on each side, so the inner loop needs no bound checks: the band moves by at most one column
+     * from one row to the next, and the cells of the previous row next to its band read as infinite.
+     */
+    private double bandDistance(final double[] first, final int firstOffset, final int n,
+                                final double[] second, final int secondOffset, final int m,
+                                final int below, final int above, final double cutOffValue) {
+        if (m - n > above || n - m > below)
+            return Double.POSITIVE_INFINITY;
+
+        final int bandWidth = (int) Math.min(m, (long) below + above + 1);
+        ensureRowCapacity(bandWidth + 2);
+        double[] prev = prevRow;
+        double[] curr = currRow;
 
         double diff;
         int i, j;
 
-        diff = first.value(0) - second.value(0);
-        matrixD[0][0] = diff * diff;
-        for (i = 1; i < n; i++) {
-            diff = first.value(i) - second.value(0);
-            matrixD[i][0] = matrixD[i - 1][0] + diff * diff;
-            pathD[i][0] = 1;
+        // first row, cells 0 to min(m - 1, above)
+        final int firstRowEnd = (int) Math.min(m - 1, (long) above);
+        prev[0] = Double.POSITIVE_INFINITY;
+        diff = first[firstOffset] - second[secondOffset];
+        prev[1] = diff * diff;
+        for (j = 1; j <= firstRowEnd; j++) {
+            diff = first[firstOffset] - second[secondOffset + j];
+            prev[j + 1] = prev[j] + diff * diff;
         }
+        prev[firstRowEnd + 2] = Double.POSITIVE_INFINITY;
 
-        for (j = 1; j < m; j++) {
-            diff = first.value(0) - second.value(j);
-            matrixD[0][j] = matrixD[0][j - 1] + diff * diff;
-            pathD[0][j] = 2;
-        }
+        int prevStart = 0;
 
         for (i = 1; i < n; i++) {
-            for (j = 1; j < m; j++) {
-                diff = first.value(i) - second.value(j);
-                double minRes = matrixD[i - 1][j - 1];
-                if (matrixD[i - 1][j] < minRes) {
-                    minRes = matrixD[i - 1][j];
-                    pathD[i][j] = 1;
-                }
+            final double firstValue = first[firstOffset + i];
+            final int jStart = Math.max(0, i - below);
+            final int jEnd = (int) Math.min(m - 1, (long) i + above);
+            // position of column j in the previous row is j - shift
+            final int shift = jStart - prevStart;
+            final int len = jEnd - jStart + 1;
+            double minRow = Double.POSITIVE_INFINITY;
+
+            curr[0] = Double.POSITIVE_INFINITY;
+            for (int k = 1; k <= len; k++) {
+                diff = firstValue - second[secondOffset + jStart + k - 1];
+                final double cost = GenericTools.min3(prev[k + shift - 1], curr[k - 1], prev[k + shift]) + diff * diff;
+                curr[k] = cost;
+                if (cost < minRow)
+                    minRow = cost;
+            }
+            curr[len + 1] = Double.POSITIVE_INFINITY;
 
-                if (matrixD[i][j - 1] < minRes) {
-                    minRes = matrixD[i][j - 1];
-                    pathD[i][j] = 2;
-                }
+            //Early abandon
+            if (minRow > cutOffValue)
+                return Double.POSITIVE_INFINITY;
 
-                matrixD[i][j] = GenericTools.min3(matrixD[i - 1][j - 1], matrixD[i][j - 1], matrixD[i - 1][j]) + diff * diff;
-            }
+            final double[] tmp = prev;
+            prev = curr;
+            curr = tmp;
+            prevStart = jStart;
         }
 
-        return matrixD[n - 1][m - 1];
+        return prev[m - prevStart];
     }
 
-    public double distance(final Sequence first, final Sequence second, final int windowSize) {
-        final int n = first.length();
-        final int m = second.length();
+    /**
+     * Same as distance(first, firstOffset, n, second, secondOffset, m, windowSize, cutOffValue), also finding the
+     * window validity of the result: the largest |i-j| on a warping path giving the distance.
+     * DTW with any window between the window validity and windowSize gives exactly the same distance,
+     * and DTW with a smaller window gives a larger or equal distance.
+     * The window validity is then available from getWindowValidity, it is -1 if the computation was abandoned.
+     */
+    public double distanceWithWindowValidity(final double[] first, final int firstOffset, final int n,
+                                             final double[] second, final int secondOffset, final int m,
+                                             final int windowSize, final double cutOffValue) {
+        windowValidity = -1;
+        if (Math.abs(n - m) > windowSize) {
+            // no warping path fits in this window or any smaller one
+            windowValidity = 0;
+            return Double.POSITIVE_INFINITY;
+        }
 
-        final int winPlus1 = windowSize + 1;
-        double diff;
-        int i, j, jStart, jEnd, indexInfyLeft;
+        ensureRowCapacity(m);
+        ensureAuxCapacity(m);
+        double[] prev = prevRow;
+        double[] curr = currRow;
+        int[] prevD = prevAux;
+        int[] currD = currAux;
 
-        diff = first.value(0) - second.value(0);
-        matrixD[0][0] = diff * diff;
-        for (i = 1; i < Math.min(n, winPlus1); i++) {
-            diff = first.value(i) - second.value(0);
-            matrixD[i][0] = matrixD[i - 1][0] + diff * diff;
-        }
+        final int winPlus1 = windowSize + 1;
+        double diff, minRow;
+        int i, j, jStart, jEnd;
 
+        diff = first[firstOffset] - second[secondOffset];
+        prev[0] = diff * diff;
+        prevD[0] = 0;
         for (j = 1; j < Math.min(m, winPlus1); j++) {
-            diff = first.value(0) - second.value(j);
-            matrixD[0][j] = matrixD[0][j - 1] + diff * diff;
+            diff = first[firstOffset] - second[secondOffset + j];
+            prev[j] = prev[j - 1] + diff * diff;
+            prevD[j] = j;
         }
         if (j < m)
-            matrixD[0][j] = Double.POSITIVE_INFINITY;
+            prev[j] = Double.POSITIVE_INFINITY;
 
+        double firstColumn = prev[0];
         for (i = 1; i < n; i++) {
+            final double firstValue = first[firstOffset + i];
             jStart = Math.max(1, i - windowSize);
             jEnd = Math.min(m, i + winPlus1);
-            indexInfyLeft = i - windowSize - 1;
-            if (indexInfyLeft >= 0)
-                matrixD[i][indexInfyLeft] = Double.POSITIVE_INFINITY;
+
+            if (i < winPlus1) {
+                diff = firstValue - second[secondOffset];
+                firstColumn += diff * diff;
+                curr[0] = firstColumn;
+                currD[0] = i;
+                minRow = firstColumn;
+            } else {
+                curr[jStart - 1] = Double.POSITIVE_INFINITY;
+                minRow = Double.POSITIVE_INFINITY;
+            }
 
             for (j = jStart; j < jEnd; j++) {
-                diff = first.value(i) - second.value(j);
-                matrixD[i][j] = GenericTools.min3(matrixD[i - 1][j - 1], matrixD[i][j - 1], matrixD[i - 1][j]) + diff * diff;
+                diff = firstValue - second[secondOffset + j];
+                // same minimum as min3, ties go to the predecessor with the narrowest path
+                double minRes = prev[j - 1];
+                int dev = prevD[j - 1];
+                if (curr[j - 1] < minRes || (curr[j - 1] == minRes && currD[j - 1] < dev)) {
+                    minRes = curr[j - 1];
+                    dev = currD[j - 1];
+                }
+                if (prev[j] < minRes || (prev[j] == minRes && prevD[j] < dev)) {
+                    minRes = prev[j];
+                    dev = prevD[j];
+                }
+                final double cost = minRes + diff * diff;
+                curr[j] = cost;
+                currD[j] = Math.max(dev, Math.abs(i - j));
+                if (cost < minRow)
+                    minRow = cost;
             }
             if (j < m)
-                matrixD[i][j] = Double.POSITIVE_INFINITY;
+                curr[j] = Double.POSITIVE_INFINITY;
+
+            //Early abandon
+            if (minRow > cutOffValue)
+                return Double.POSITIVE_INFINITY;
+
+            final double[] tmp = prev;
+            prev = curr;
+            curr = tmp;
+            final int[] tmpD = prevD;
+            prevD = currD;
+            currD = tmpD;
         }
 
-        return matrixD[n - 1][m - 1];
+        windowValidity = prevD[m - 1];
+        return prev[m - 1];
     }
 
-    public double distance(final Sequence first, final Sequence second, final double cutOffValue) {
-        boolean tooBig;
-        final int n = first.length();
-        final int m = second.length();
+    /**
+     * @return window validity of the last call to distanceWithWindowValidity, -1 if it was abandoned
+     */
+    public int getWindowValidity() {
+        return windowValidity;
+    }
 
-        double diff;
-        int i, j;
+    /**
+     * DTW distance with the length of its warping path
+     */
+    public static class Result {
+        public final double distance;
+        public final int pathLength;    // number of cells on the warping path, 0 if the distance is infinite
 
-        diff = first.value(0) - second.value(0);
-        matrixD[0][0] = diff * diff;
-        for (i = 1; i < n; i++) {
-            diff = first.value(i) - second.value(0);
-            matrixD[i][0] = matrixD[i - 1][0] + diff * diff;
+        public Result(final double distance, final int pathLength) {
+            this.distance = distance;
+            this.pathLength = pathLength;
         }
 
-        for (j = 1; j < m; j++) {
-            diff = first.value(0) - second.value(j);
-            matrixD[0][j] = matrixD[0][j - 1] + diff * diff;
-        }
-
-        for (i = 1; i < n; i++) {
-            tooBig = true;
-
-            for (j = 1; j < m; j++) {
-                diff = first.value(i) - second.value(j);
-                matrixD[i][j] = GenericTools.min3(matrixD[i - 1][j - 1], matrixD[i][j - 1], matrixD[i - 1][j]) + diff * diff;
-                if (tooBig && matrixD[i][j] < cutOffValue)
-                    tooBig = false;
-            }
-            //Early abandon
-            if (tooBig)
-                return Double.POSITIVE_INFINITY;
+        @Override
+        public String toString() {
+            return "(" + distance + ", " + pathLength + ")";
         }
+    }
 
-        return matrixD[n - 1][m - 1];
+    public Result distanceWithPathLength(final Sequence first, final Sequence second, final int windowSize, final double cutOffValue) {
+        return distanceWithPathLength(first.getBuffer(), first.getOffset(), first.length(),
+                second.getBuffer(), second.getOffset(), second.length(), windowSize, cutOffValue);
     }
 
-    public double distance(final double[] first, final double[] second, final double cutOffValue) {
-        boolean tooBig;
-        final int n = first.length;
-        final int m = second.length;
+    /**
+     * Same as distance(first, firstOffset, n, second, secondOffset, m, windowSize, cutOffValue), also counting the cells
+     * of the warping path. The length of the path to each cell of the band is kept in an auxiliary row next to its cost,
+     * taking the diagonal first, then (i-1,j), then (i,j-1) on ties, as the warping path found by warpingPath.
+     *
+     * @return distance and path length, positive infinity and 0 if abandoned or if the last cell is outside of the window
+     */
+    public Result distanceWithPathLength(final double[] first, final int firstOffset, final int n,
+                                         final double[] second, final int secondOffset, final int m,
+                                         final int windowSize, final double cutOffValue) {
+        if (Math.abs(n - m) > windowSize)
+            return new Result(Double.POSITIVE_INFINITY, 0);
+
+        final int bandWidth = (int) Math.min(m, 2L * windowSize + 1);
+        ensureRowCapacity(bandWidth + 2);
+        ensureAuxCapacity(bandWidth + 2);
+        double[] prev = prevRow;
+        double[] curr = currRow;
+        int[] prevLen = prevAux;
+        int[] currLen = currAux;
 
         double diff;
         int i, j;
 
-        diff = first[0] - second[0];
-        matrixD[0][0] = diff * diff;
-        for (i = 1; i < n; i++) {
-            diff = first[i] - second[0];
-            matrixD[i][0] = matrixD[i - 1][0] + diff * diff;
-        }
-
-        for (j = 1; j < m; j++) {
-            diff = first[0] - second[j];
-            matrixD[0][j] = matrixD[0][j - 1] + diff * diff;
+        final int firstRowEnd = Math.min(m - 1, windowSize);
+        prev[0] = Double.POSITIVE_INFINITY;
+        diff = first[firstOffset] - second[secondOffset];
+        prev[1] = diff * diff;
+        prevLen[1] = 1;
+        for (j = 1; j <= firstRowEnd; j++) {
+            diff = first[firstOffset] - second[secondOffset + j];
+            prev[j + 1] = prev[j] + diff * diff;
+            prevLen[j + 1] = j + 1;
         }
+        prev[firstRowEnd + 2] = Double.POSITIVE_INFINITY;
 
+        int prevStart = 0;
         for (i = 1; i < n; i++) {
-            tooBig = true;
-
-            for (j = 1; j < m; j++) {
-                diff = first[i] - second[j];
-                matrixD[i][j] = GenericTools.min3(matrixD[i - 1][j - 1], matrixD[i][j - 1], matrixD[i - 1][j]) + diff * diff;
-                if (tooBig && matrixD[i][j] < cutOffValue)
-                    tooBig = false;
+            final double firstValue = first[firstOffset + i];
+            final int jStart = Math.max(0, i - windowSize);
+            final int jEnd = Math.min(m - 1, i + windowSize);
+            final int shift = jStart - prevStart;
+            final int len = jEnd - jStart + 1;
+            double minRow = Double.POSITIVE_INFINITY;
+
+            curr[0] = Double.POSITIVE_INFINITY;
+            for (int k = 1; k <= len; k++) {
+                diff = firstValue - second[secondOffset + jStart + k - 1];
+                double minRes = prev[k + shift - 1];
+                int pathLen = prevLen[k + shift - 1];
+                if (prev[k + shift] < minRes) {
+                    minRes = prev[k + shift];
+                    pathLen = prevLen[k + shift];
+                }
+                if (curr[k - 1] < minRes) {
+                    minRes = curr[k - 1];
+                    pathLen = currLen[k - 1];
+                }
+                final double cost = minRes + diff * diff;
+                curr[k] = cost;
+                currLen[k] = pathLen + 1;
+                if (cost < minRow)
+                    minRow = cost;
             }
+            curr[len + 1] = Double.POSITIVE_INFINITY;
+
             //Early abandon
-            if (tooBig)
-                return Double.POSITIVE_INFINITY;
+            if (minRow > cutOffValue)
+                return new Result(Double.POSITIVE_INFINITY, 0);
+
+            final double[] tmp = prev;
+            prev = curr;
+            curr = tmp;
+            final int[] tmpLen = prevLen;
+            prevLen = currLen;
+            currLen = tmpLen;
+            prevStart = jStart;
         }
 
-        return matrixD[n - 1][m - 1];
+        return new Result(prev[m - prevStart], prevLen[m - prevStart]);
     }
 
-    public double distance(final Sequence first, final Sequence second, final int windowSize, final double cutOffValue) {
-        boolean tooBig;
+    /**
+     * Warping path of DTW with a Sakoe-Chiba window, using the full cost matrix
+     *
+     * @param first      first series
+     * @param second     second series
+     * @param windowSize warping window
+     * @return cells {i, j} of the warping path from (0,0) to (n-1,m-1), or null if the last cell is outside of the window
+     */
+    public int[][] warpingPath(final Sequence first, final Sequence second, final int windowSize) {
         final int n = first.length();
         final int m = second.length();
+        if (Math.abs(n - m) > windowSize)
+            return null;
+        ensureMatrixCapacity(n, m);
 
         double diff;
-        int i, j, jStart, jEnd, indexInfyLeft;
+        int i, j, jStart, jEnd, cell;
 
         diff = first.value(0) - second.value(0);
-        matrixD[0][0] = diff * diff;
-        for (i = 1; i < Math.min(n, 1 + windowSize); i++) {
+        matrixD[0] = diff * diff;
+        pathD[0] = 0;
+        for (i = 1; i < n; i++) {
+            cell = i * m;
+            if (i > windowSize) {
+                matrixD[cell] = Double.POSITIVE_INFINITY;
+                continue;
+            }
             diff = first.value(i) - second.value(0);
-            matrixD[i][0] = matrixD[i - 1][0] + diff * diff;
+            matrixD[cell] = matrixD[cell - m] + diff * diff;
+            pathD[cell] = 1;
         }
 
-        for (j = 1; j < Math.min(m, 1 + windowSize); j++) {
+        for (j = 1; j < m; j++) {
+            if (j > windowSize) {
+                matrixD[j] = Double.POSITIVE_INFINITY;
+                continue;
+            }
             diff = first.value(0) - second.value(j);
-            matrixD[0][j] = matrixD[0][j - 1] + diff * diff;
+            matrixD[j] = matrixD[j - 1] + diff * diff;
+            pathD[j] = 2;
         }
-        if (j < m)
-            matrixD[0][j] = Double.POSITIVE_INFINITY;
 
         for (i = 1; i < n; i++) {
-            tooBig = true;
+            final int row = i * m;
             jStart = Math.max(1, i - windowSize);
             jEnd = Math.min(m, i + windowSize + 1);
-            indexInfyLeft = i - windowSize - 1;
-            if (indexInfyLeft >= 0)
-                matrixD[i][indexInfyLeft] = Double.POSITIVE_INFINITY;
-
+            for (j = 1; j < jStart; j++)
+                matrixD[row + j] = Double.POSITIVE_INFINITY;
             for (j = jStart; j < jEnd; j++) {
+                cell = row + j;
                 diff = first.value(i) - second.value(j);
-                matrixD[i][j] = GenericTools.min3(matrixD[i - 1][j - 1], matrixD[i][j - 1], matrixD[i - 1][j]) + diff * diff;
-                if (tooBig && matrixD[i][j] < cutOffValue)
-                    tooBig = false;
+                double minRes = matrixD[cell - m - 1];
+                byte path = 0;
+                if (matrixD[cell - m] < minRes) {
+                    minRes = matrixD[cell - m];
+                    path = 1;
+                }
+                if (matrixD[cell - 1] < minRes) {
+                    minRes = matrixD[cell - 1];
+                    path = 2;
+                }
+                matrixD[cell] = minRes + diff * diff;
+                pathD[cell] = path;
             }
-            //Early abandon
-            if (tooBig)
-                return Double.POSITIVE_INFINITY;
+            for (; j < m; j++)
+                matrixD[row + j] = Double.POSITIVE_INFINITY;
+        }
 
-            if (j < m)
-                matrixD[i][j] = Double.POSITIVE_INFINITY;
+        // walk back from the last cell, then reverse
+        final int[][] path = new int[n + m - 1][];
+        int count = 0;
+        i = n - 1;
+        j = m - 1;
+        path[count++] = new int[]{i, j};
+        while (i > 0 || j > 0) {
+            final byte step = pathD[i * m + j];
+            if (step == 0) {
+                i--;
+                j--;
+            } else if (step == 1) {
+                i--;
+            } else {
+                j--;
+            }
+            path[count++] = new int[]{i, j};
         }
+        final int[][] result = new int[count][];
+        for (int k = 0; k < count; k++)
+            result[k] = path[count - 1 - k];
+        return result;
+    }
 
-        return matrixD[n - 1][m - 1];
+    private static int fullWindow(final Sequence first, final Sequence second) {
+        return Math.max(first.length(), second.length());
     }
 
-    public static int findPathLen(int n, int m) {
-        int i = n;
-        int j = m;
-        int count = 0;
-        while (i > 0 || j > 0) {
-            if (pathD[i][j] == 0) {
-                i = i - 1;
-                j = j - 1;
-            } else if (pathD[i][j] == 1)
-                i = i - 1;
-            else if (pathD[i][j] == 2)
-                j = j - 1;
-            count++;
+    private void ensureRowCapacity(final int m) {
+        if (prevRow.length < m) {
+            prevRow = new double[m];
+            currRow = new double[m];
+        }
+    }
+
+    private void ensureAuxCapacity(final int m) {
+        if (prevAux.length < m) {
+            prevAux = new int[m];
+            currAux = new int[m];
         }
+    }
 
-        return count;
+    private void ensureMatrixCapacity(final int n, final int m) {
+        final long size = (long) n * m;
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Series of length " + n + " and " + m + " are too long to keep the warping path");
+        if (matrixD.length < size) {
+            matrixD = new double[(int) size];
+            pathD = new byte[(int) size];
+        }
     }
 }
@@ -0,0 +1,136 @@
+/* Copyright (C) 2019 Chang Wei Tan, Francois Petitjean, Geoff Webb
+ This file is part of Varying length TSC.
+ Varying length TSC is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, version 3 of the License.
+ Varying length TSC is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with Varying length TSC.  If not, see <http://www.gnu.org/licenses/>. */
+package distances;
+
+/**
+ * This is a class with lower bounds for DTW that also work on series of different lengths,
+ * matching the Sakoe-Chiba window used in DTW, i.e. |i-j| <= window
+ *
+ * @author Chang Wei
+ */
+public class DTWLowerBound {
+    /**
+     * LB_Kim using the first and last points, which are always aligned together by DTW
+     *
+     * @param first  first series
+     * @param second second series
+     * @return lower bound of DTW(first, second)
+     */
+    public static double lbKim(final double[] first, final double[] second) {
+        return lbKim(first, 0, first.length, second, 0, second.length);
+    }
+
+    /**
+     * Same as lbKim(first, second) on slices of arrays
+     */
+    public static double lbKim(final double[] first, final int firstOffset, final int n,
+                               final double[] second, final int secondOffset, final int m) {
+        double diff = first[firstOffset] - second[secondOffset];
+        double lb = diff * diff;
+        if (n > 1 || m > 1) {
+            diff = first[firstOffset + n - 1] - second[secondOffset + m - 1];
+            lb += diff * diff;
+        }
+        return lb;
+    }
+
+    /**
+     * Build the upper and lower envelopes of a series for a given window using Lemire's streaming min-max,
+     * upper[i] = max(series[i-window..i+window]) and lower[i] = min(series[i-window..i+window]),
+     * both clipped to the series
+     *
+     * @param series series
+     * @param window warping window
+     * @param upper  upper envelope, same length as the series
+     * @param lower  lower envelope, same length as the series
+     */
+    public static void envelope(final double[] series, final int window, final double[] upper, final double[] lower) {
+        envelope(series, 0, series.length, window, upper, lower);
+    }
+
+    /**
+     * Same as envelope(series, window, upper, lower) on a slice of an array, such as a sequence packed into a buffer
+     */
+    public static void envelope(final double[] buffer, final int offset, final int n, final int window,
+                                final double[] upper, final double[] lower) {
+        final int w = Math.min(window, n - 1);
+        final int[] maxQueue = new int[n];
+        final int[] minQueue = new int[n];
+        int maxHead = 0, maxTail = 0;
+        int minHead = 0, minTail = 0;
+
+        for (int k = 0; k < n + w; k++) {
+            if (k < n) {
+                while (maxTail > maxHead && buffer[offset + maxQueue[maxTail - 1]] <= buffer[offset + k])
+                    maxTail--;
+                maxQueue[maxTail++] = k;
+                while (minTail > minHead && buffer[offset + minQueue[minTail - 1]] >= buffer[offset + k])
+                    minTail--;
+                minQueue[minTail++] = k;
+            }
+
+            final int i = k - w;
+            if (i >= 0) {
+                while (maxQueue[maxHead] < i - w)
+                    maxHead++;
+                while (minQueue[minHead] < i - w)
+                    minHead++;
+                upper[i] = buffer[offset + maxQueue[maxHead]];
+                lower[i] = buffer[offset + minQueue[minHead]];
+            }
+        }
+    }
+
+    /**
+     * LB_Keogh of a series against the envelope of another series of possibly different length.
+     * Points beyond the end of the envelope are compared with its last point, whose window covers
+     * all the cells they can be aligned with.
+     *
+     * @param series      series compared to the envelope
+     * @param upper       upper envelope of the other series
+     * @param lower       lower envelope of the other series
+     * @param window      warping window used to build the envelope
+     * @param cutOffValue stop summing once the bound is larger than this
+     * @return lower bound of DTW(series, other series), positive infinity if no warping path fits in the window
+     */
+    public static double lbKeogh(final double[] series, final double[] upper, final double[] lower,
+                                 final int window, final double cutOffValue) {
+        return lbKeogh(series, 0, series.length, upper, lower, window, cutOffValue);
+    }
+
+    /**
+     * Same as lbKeogh(series, upper, lower, window, cutOffValue) on a slice of an array
+     */
+    public static double lbKeogh(final double[] series, final int offset, final int n,
+                                 final double[] upper, final double[] lower,
+                                 final int window, final double cutOffValue) {
+        final int m = upper.length;
+        if (n - m > window || m - n > window)
+            return Double.POSITIVE_INFINITY;
+
+        double lb = 0;
+        for (int i = 0; i < n; i++) {
+            final int k = Math.min(i, m - 1);
+            final double value = series[offset + i];
+            if (value > upper[k]) {
+                final double diff = value - upper[k];
+                lb += diff * diff;
+            } else if (value < lower[k]) {
+                final double diff = lower[k] - value;
+                lb += diff * diff;
+            }
+            if (lb > cutOffValue)
+                return lb;
+        }
+        return lb;
+    }
+}
@@ -0,0 +1,241 @@
+/* Copyright (C) 2019 Chang Wei Tan, Francois Petitjean, Geoff Webb
+ This file is part of Varying length TSC.
+ Varying length TSC is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, version 3 of the License.
+ Varying length TSC is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with Varying length TSC.  If not, see <http://www.gnu.org/licenses/>. */
+package distances;
+
+import data.Sequence;
+import signalProcessing.FFT;
+
+/**
+ * This is a class to compute the Subsequence distance with the whole distance profile at once (MASS).
+ * The sliding dot products of the shorter series against the longer one come from one FFT cross-correlation,
+ * and the sums over each window from running sums, so a pair costs O(n log n) instead of O((n-m+1)m).
+ * The distance is the squared Euclidean distance, on the raw values or on z-normalised subsequences.
+ * Not thread safe, each thread needs its own instance.
+ *
+ * @author Chang Wei
+ */
+public class MASS {
+    // the sliding dot products are computed directly when they cost less than this many times n log n
+    private static final double FFT_COST_RATIO = 16;
+    // bound on the rounding error of the raw profile, relative to the sums of squares of both series
+    private static final double RAW_PROFILE_TOLERANCE = 1e-9;
+
+    private double[] dots = new double[0];
+    private double[] cumSum = new double[0];
+    private double[] cumSumSq = new double[0];
+    private double[] re = new double[0];
+    private double[] im = new double[0];
+    private double[] cIm = new double[0];
+    private double querySumSq;      // sum of squares of the shorter series of the last profile
+
+    /**
+     * Best match of the shorter series in the longer one
+     */
+    public static class Result {
+        public final double distance;
+        public final int offset;
+
+        public Result(final double distance, final int offset) {
+            this.distance = distance;
+            this.offset = offset;
+        }
+
+        @Override
+        public String toString() {
+            return "distance=" + distance + ", offset=" + offset;
+        }
+    }
+
+    public final double distance(final Sequence first, final Sequence second) {
+        return bestMatch(first.getBuffer(), first.getOffset(), first.length(),
+                second.getBuffer(), second.getOffset(), second.length(), false).distance;
+    }
+
+    public final double distance(final double[] first, final double[] second) {
+        return bestMatch(first, second, false).distance;
+    }
+
+    /**
+     * @param first      first series
+     * @param second     second series
+     * @param zNormalise compare z-normalised subsequences
+     * @return smallest distance over all alignments, and the offset of the shorter series in the longer one
+     */
+    public final Result bestMatch(final double[] first, final double[] second, final boolean zNormalise) {
+        return bestMatch(first, 0, first.length, second, 0, second.length, zNormalise);
+    }
+
+    /**
+     * Same as bestMatch(first, second, zNormalise) on slices of arrays, such as sequences packed into a buffer
+     */
+    public final Result bestMatch(final double[] first, final int firstOffset, final int n,
+                                  final double[] second, final int secondOffset, final int m, final boolean zNormalise) {
+        if (n < m) return bestMatch(second, secondOffset, m, first, firstOffset, n, zNormalise);
+
+        final int profileLen = computeProfile(first, firstOffset, n, second, secondOffset, m, zNormalise);
+        double bsfDist = Double.POSITIVE_INFINITY;
+        int bsfOffset = 0;
+        for (int j = 0; j < profileLen; j++) {
+            if (dots[j] < bsfDist) {
+                bsfDist = dots[j];
+                bsfOffset = j;
+            }
+        }
+        return new Result(bsfDist, bsfOffset);
+    }
+
+    /**
+     * Raw best match with the exact distance of SubsequenceDistance. The raw profile is sum(T^2) - 2 dot + sum(Q^2),
+     * which loses precision when the terms are large and nearly cancel: an exact match can come out at 1e-8 instead
+     * of 0. So the profile only selects the offsets to score: every offset whose profile is within the error bound
+     * of the best distance so far is rescored with the exact sum of squared differences, in the same order as
+     * SubsequenceDistance and with early abandoning at the cut-off.
+     *
+     * @return exact smallest distance and an offset where it is reached,
+     * positive infinity and offset -1 if it is larger than the cut-off value
+     */
+    public final Result exactMatch(final double[] first, final int firstOffset, final int n,
+                                   final double[] second, final int secondOffset, final int m, final double cutOffValue) {
+        if (n < m) return exactMatch(second, secondOffset, m, first, firstOffset, n, cutOffValue);
+
+        final int profileLen = computeProfile(first, firstOffset, n, second, secondOffset, m, false);
+        final double tolerance = RAW_PROFILE_TOLERANCE * (cumSumSq[n] + querySumSq);
+        int start = 0;
+        for (int j = 1; j < profileLen; j++) {
+            if (dots[j] < dots[start])
+                start = j;
+        }
+
+        // the best offset of the profile is scored first, to get a tight threshold for the others
+        double bsfDist = Double.POSITIVE_INFINITY;
+        int bsfOffset = -1;
+        for (int k = -1; k < profileLen; k++) {
+            if (k == start) continue;
+            final int j = k < 0 ? start : k;
+            final double threshold = Math.min(bsfDist, cutOffValue);
+            if (dots[j] - tolerance > threshold) continue;
+
+            double dist = 0;
+            for (int i = 0; i < m; i++) {
+                final double diff = first[firstOffset + i + j] - second[secondOffset + i];
+                dist += diff * diff;
+                if (dist > threshold)
+                    break;
+            }
+            if (dist < bsfDist && dist <= cutOffValue) {
+                bsfDist = dist;
+                bsfOffset = j;
+            }
+        }
+        return new Result(bsfDist, bsfOffset);
+    }
+
+    /**
+     * @param first      first series
+     * @param second     second series
+     * @param zNormalise compare z-normalised subsequences
+     * @return distance of the shorter series to every subsequence of the longer one
+     */
+    public final double[] distanceProfile(final double[] first, final double[] second, final boolean zNormalise) {
+        if (first.length < second.length) return distanceProfile(second, first, zNormalise);
+
+        final int profileLen = computeProfile(first, 0, first.length, second, 0, second.length, zNormalise);
+        final double[] profile = new double[profileLen];
+        System.arraycopy(dots, 0, profile, 0, profileLen);
+        return profile;
+    }
+
+    /**
+     * Whether the FFT is used for the sliding dot products of series with these lengths
+     */
+    public static boolean useFFT(final int n, final int m) {
+        final int paddedLength = FFT.paddedLength(n);
+        final double fftCost = paddedLength * (double) Integer.numberOfTrailingZeros(paddedLength);
+        return (double) (n - m + 1) * m > FFT_COST_RATIO * fftCost;
+    }
+
+    // distance profile of query over series into dots[0 .. n-m], with n >= m
+    private int computeProfile(final double[] series, final int seriesOffset, final int n,
+                               final double[] query, final int queryOffset, final int m, final boolean zNormalise) {
+        final int profileLen = n - m + 1;
+        slidingDotProducts(series, seriesOffset, n, query, queryOffset, m);
+
+        if (cumSum.length < n + 1) {
+            cumSum = new double[n + 1];
+            cumSumSq = new double[n + 1];
+        }
+        for (int i = 0; i < n; i++) {
+            final double value = series[seriesOffset + i];
+            cumSum[i + 1] = cumSum[i] + value;
+            cumSumSq[i + 1] = cumSumSq[i] + value * value;
+        }
+
+        double sumQ = 0;
+        double sumQSq = 0;
+        for (int i = 0; i < m; i++) {
+            final double value = query[queryOffset + i];
+            sumQ += value;
+            sumQSq += value * value;
+        }
+        querySumSq = sumQSq;
+
+        if (zNormalise) {
+            final double meanQ = sumQ / m;
+            final double stdQ = Math.sqrt(Math.max(0, sumQSq / m - meanQ * meanQ));
+            for (int j = 0; j < profileLen; j++) {
+                final double meanT = (cumSum[j + m] - cumSum[j]) / m;
+                final double stdT = Math.sqrt(Math.max(0, (cumSumSq[j + m] - cumSumSq[j]) / m - meanT * meanT));
+                double dist;
+                if (stdQ == 0 || stdT == 0) {
+                    // a constant subsequence z-normalises to zeros
+                    dist = (stdQ == 0 && stdT == 0) ? 0 : m;
+                } else {
+                    final double corr = (dots[j] - m * meanQ * meanT) / (m * stdQ * stdT);
+                    dist = 2 * m * (1 - corr);
+                }
+                dots[j] = Math.max(0, dist);
+            }
+        } else {
+            for (int j = 0; j < profileLen; j++) {
+                final double sumTSq = cumSumSq[j + m] - cumSumSq[j];
+                dots[j] = Math.max(0, sumTSq - 2 * dots[j] + sumQSq);
+            }
+        }
+        return profileLen;
+    }
+
+    // dots[j] = sum_i query[i] * series[i + j] for j = 0 .. n-m
+    private void slidingDotProducts(final double[] series, final int seriesOffset, final int n,
+                                    final double[] query, final int queryOffset, final int m) {
+        if (!useFFT(n, m)) {
+            if (dots.length < n - m + 1) dots = new double[n - m + 1];
+            for (int j = 0; j <= n - m; j++) {
+                double dot = 0;
+                for (int i = 0; i < m; i++)
+                    dot += query[queryOffset + i] * series[seriesOffset + i + j];
+                dots[j] = dot;
+            }
+            return;
+        }
+
+        // no wrap around for the lags 0 .. n-m as long as the padded length is at least n
+        final FFT fft = FFT.plan(FFT.paddedLength(n));
+        final int paddedLength = fft.length();
+        if (re.length < paddedLength) {
+            re = new double[paddedLength];
+            im = new double[paddedLength];
+            cIm = new double[paddedLength];
+        }
+        if (dots.length < paddedLength) dots = new double[paddedLength];
+        fft.xcorr(query, queryOffset, m, series, seriesOffset, n, dots, re, im, cIm);
+    }
+}
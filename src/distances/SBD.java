@@ -13,6 +13,7 @@ package distances;
 
 import data.Sequence;
 import signalProcessing.DSP;
+import signalProcessing.FFT;
 
 /**
  * This is a class to compute Shape Based distance
@@ -20,7 +21,16 @@ import signalProcessing.DSP;
  * @author Chang Wei
  */
 public class SBD {
+    public static final int DEFAULT_FFT_THRESHOLD = 128;
+
     private int shift;
+    private int fftThreshold = DEFAULT_FFT_THRESHOLD;    // use FFT for the cross-correlation from this length
+
+    // workspace of the FFT cross-correlation of distance(Sequence, Sequence), grown on demand
+    private double[] cc = new double[0];
+    private double[] re = new double[0];
+    private double[] im = new double[0];
+    private double[] cIm = new double[0];
 
     public static void main(String[] args) {
         double[] a = {0.2801, 0.2948, 0.3088, 0.3220, 0.3345, 0.3463, 0.3574, 0.3678, 0.3776, 0.3867, 0.3952, 0.4031, 0.4103, 0.4171, 0.4232, 0.4288, 0.4339, 0.4385, 0.4425, 0.4461, 0.4493, 0.4520, 0.4542, 0.4561, 0.4576, 0.4587, 0.4594, 0.4596, 0.4595, 0.4589, 0.4580, 0.4568, 0.4553, 0.4535, 0.4515, 0.4492, 0.4468, 0.4443, 0.4416, 0.4390, 0.4363, 0.4337, 0.4313, 0.4289, 0.4268, 0.4250, 0.4235, 0.4223, 0.4216, 0.4214, 0.4216, 0.4224, 0.4238, 0.4258, 0.4285, 0.4319, 0.4359, 0.4406, 0.4459, 0.4520, 0.4587, 0.4660, 0.4739, 0.4824, 0.4914, 0.5009, 0.5108, 0.5211, 0.5316, 0.5425, 0.5535, 0.5646, 0.5758, 0.5870, 0.5980, 0.6090, 0.6197, 0.6302, 0.6404, 0.6502, 0.6596, 0.6685, 0.6770, 0.6849, 0.6923, 0.6991, 0.7054, 0.7112, 0.7164, 0.7211, 0.7254, 0.7291, 0.7325, 0.7354, 0.7381, 0.7404, 0.7425, 0.7444, 0.7462, 0.7479, 0.7496, 0.7513, 0.7531, 0.7551, 0.7573, 0.7598, 0.7625, 0.7656, 0.7690, 0.7728, 0.7771, 0.7818, 0.7870, 0.7927, 0.7989, 0.8056, 0.8128, 0.8205, 0.8287, 0.8374, 0.8466, 0.8561, 0.8661, 0.8765, 0.8872, 0.8982, 0.9095, 0.9211, 0.9328, 0.9446, 0.9566, 0.9686, 0.9806, 0.9925, 1.0043, 1.0160, 1.0275, 1.0387, 1.0497, 1.0603, 1.0705, 1.0804, 1.0897, 1.0986, 1.1070, 1.1147, 1.1219, 1.1285, 1.1345, 1.1398, 1.1445, 1.1485, 1.1519, 1.1546, 1.1566, 1.1580, 1.1587, 1.1589, 1.1584, 1.1573, 1.1557, 1.1536, 1.1510, 1.1480, 1.1445, 1.1407, 1.1365, 1.1320, 1.1272, 1.1222, 1.1170, 1.1117, 1.1062, 1.1007, 1.0951, 1.0895, 1.0839, 1.0783, 1.0728, 1.0673, 1.0620, 1.0568, 1.0518, 1.0469, 1.0421, 1.0375, 1.0332, 1.0290, 1.0250, 1.0212, 1.0176, 1.0142, 1.0110, 1.0081, 1.0053, 1.0028, 1.0005, 0.9985, 0.9967, 0.9952, 0.9939, 0.9929, 0.9922, 0.9918, 0.9918, 0.9921, 0.9927, 0.9938, 0.9953, 0.9971, 0.9995, 1.0023, 1.0056, 1.0094, 1.0138, 1.0187, 1.0241, 1.0302, 1.0368, 1.0440, 1.0518, 1.0602, 1.0692, 1.0788, 1.0889, 1.0996, 1.1108, 1.1226, 1.1348, 1.1474, 1.1605, 1.1738, 1.1875, 1.2015, 1.2156, 1.2298, 1.2442, 1.2585, 1.2728, 1.2869, 1.3008, 1.3145, 1.3279, 1.3408, 1.3534, 1.3654, 1.3768, 1.3877, 1.3979, 1.4074, 1.4162, 1.4242, 1.4315, 1.4380, 1.4436, 1.4485, 1.4526, 1.4559, 1.4584, 1.4602, 1.4613, 1.4617, 1.4614, 1.4606, 1.4592, 1.4574, 1.4551, 1.4525, 1.4496, 1.4464, 1.4430, 1.4396, 1.4360, 1.4325, 1.4291, 1.4257, 1.4225, 1.4195, 1.4168, 1.4143, 1.4122, 1.4104, 1.4089, 1.4078, 1.4070, 1.4067, 1.4066, 1.4070, 1.4077, 1.4088, 1.4101, 1.4117, 1.4136, 1.4157, 1.4181, 1.4206, 1.4232, 1.4259, 1.4287, 1.4315, 1.4343, 1.4371, 1.4398, 1.4424, 1.4449, 1.4472, 1.4493, 1.4512, 1.4529, 1.4544, 1.4556, 1.4565, 1.4572, 1.4575, 1.4576, 1.4573, 1.4568, 1.4559, 1.4547, 1.4532, 1.4513, 1.4491, 1.4465, 1.4436, 1.4404, 1.4368, 1.4328, 1.4285, 1.4239, 1.4188, 1.4135, 1.4077, 1.4016, 1.3951, 1.3883, 1.3810, 1.3735, 1.3655, 1.3572, 1.3486, 1.3396, 1.3303, 1.3207, 1.3108, 1.3007, 1.2903, 1.2797, 1.2689, 1.2579, 1.2468, 1.2356, 1.2244, 1.2131, 1.2018, 1.1906, 1.1795, 1.1684, 1.1576, 1.1469, 1.1364, 1.1262, 1.1163, 1.1066, 1.0973, 1.0883, 1.0797, 1.0714, 1.0635, 1.0559, 1.0487, 1.0419, 1.0354, 1.0293, 1.0235, 1.0181, 1.0130, 1.0082, 1.0037, 0.9996, 0.9957, 0.9921, 0.9887, 0.9856, 0.9827, 0.9800, 0.9775, 0.9752, 0.9732, 0.9713, 0.9696, 0.9681, 0.9667, 0.9656, 0.9646, 0.9638, 0.9632, 0.9628, 0.9625, 0.9624, 0.9625, 0.9628, 0.9632, 0.9638, 0.9645, 0.9654, 0.9663, 0.9674, 0.9685, 0.9696, 0.9708, 0.9719, 0.9729, 0.9739, 0.9747, 0.9752, 0.9756, 0.9757, 0.9754, 0.9747, 0.9737, 0.9721, 0.9701, 0.9675, 0.9644, 0.9607, 0.9564, 0.9514, 0.9458, 0.9396, 0.9327, 0.9252, 0.9170, 0.9081, 0.8987, 0.8885, 0.8778, 0.8665, 0.8546, 0.8422, 0.8293, 0.8158, 0.8019, 0.7875, 0.7726, 0.7574, 0.7417, 0.7256, 0.7091, 0.6923, 0.6751, 0.6575, 0.6396, 0.6213, 0.6027, 0.5837, 0.5644, 0.5446, 0.5246, 0.5042, 0.4834, 0.4622, 0.4407, 0.4189, 0.3967, 0.3741, 0.3513, 0.3281, 0.3046, 0.2809, 0.2569, 0.2327, 0.2083, 0.1838, 0.1592, 0.1346, 0.1100, 0.0854, 0.0609, 0.0366, 0.0125, -0.0114, -0.0350, -0.0582, -0.0810, -0.1035, -0.1255, -0.1470, -0.1680, -0.1885, -0.2085, -0.2280, -0.2471, -0.2656, -0.2837, -0.3014, -0.3186, -0.3355, -0.3521, -0.3684, -0.3844, -0.4003, -0.4159, -0.4315, -0.4470, -0.4625, -0.4780, -0.4935, -0.5091, -0.5249, -0.5407, -0.5567, -0.5729, -0.5893, -0.6058, -0.6226, -0.6395, -0.6565, -0.6738, -0.6911, -0.7086, -0.7261, -0.7437, -0.7612, -0.7788, -0.7962, -0.8135, -0.8307, -0.8476, -0.8642, -0.8805, -0.8965, -0.9120, -0.9271, -0.9417, -0.9558, -0.9694, -0.9823, -0.9947, -1.0065, -1.0176, -1.0281, -1.0380, -1.0473, -1.0560, -1.0641, -1.0716, -1.0786, -1.0851, -1.0911, -1.0966, -1.1017, -1.1064, -1.1108, -1.1149, -1.1187, -1.1224, -1.1259, -1.1293, -1.1327, -1.1360, -1.1394, -1.1428, -1.1464, -1.1501, -1.1540, -1.1582, -1.1626, -1.1672, -1.1722, -1.1775, -1.1831, -1.1890, -1.1953, -1.2019, -1.2088, -1.2161, -1.2236, -1.2314, -1.2394, -1.2477, -1.2561, -1.2646, -1.2732, -1.2819, -1.2905, -1.2991, -1.3075, -1.3158, -1.3240, -1.3318, -1.3393, -1.3465, -1.3533, -1.3597, -1.3656, -1.3710, -1.3759, -1.3803, -1.3841, -1.3874, -1.3901, -1.3922, -1.3938, -1.3949, -1.3954, -1.3955, -1.3951, -1.3943, -1.3932, -1.3916, -1.3898, -1.3877, -1.3855, -1.3831, -1.3805, -1.3780, -1.3754, -1.3729, -1.3705, -1.3683, -1.3663, -1.3645, -1.3631, -1.3619, -1.3612, -1.3609, -1.3610, -1.3616, -1.3626, -1.3642, -1.3662, -1.3688, -1.3719, -1.3754, -1.3794, -1.3839, -1.3889, -1.3942, -1.4000, -1.4061, -1.4126, -1.4194, -1.4264, -1.4336, -1.4411, -1.4487, -1.4564, -1.4641, -1.4719, -1.4797, -1.4875, -1.4952, -1.5028, -1.5102, -1.5174, -1.5244, -1.5312, -1.5377, -1.5438, -1.5497, -1.5551, -1.5602, -1.5648, -1.5690, -1.5727, -1.5759, -1.5786, -1.5808, -1.5824, -1.5835, -1.5841, -1.5840, -1.5834, -1.5822, -1.5804, -1.5781, -1.5751, -1.5716, -1.5676, -1.5630, -1.5578, -1.5521, -1.5459, -1.5392, -1.5321, -1.5245, -1.5165, -1.5081, -1.4994, -1.4904, -1.4811, -1.4716, -1.4619, -1.4520, -1.4421, -1.4322, -1.4222, -1.4123, -1.4025, -1.3929, -1.3834, -1.3742, -1.3652, -1.3566, -1.3483, -1.3404, -1.3329, -1.3258, -1.3192, -1.3131, -1.3074, -1.3023, -1.2976, -1.2935, -1.2898, -1.2866, -1.2839, -1.2816, -1.2798, -1.2783, -1.2773, -1.2766, -1.2762, -1.2761, -1.2763, -1.2767, -1.2773, -1.2781, -1.2790, -1.2799, -1.2810, -1.2820, -1.2830, -1.2839, -1.2848, -1.2856, -1.2862, -1.2866, -1.2869, -1.2869, -1.2868, -1.2863, -1.2856, -1.2846, -1.2833, -1.2817, -1.2798, -1.2775, -1.2750, -1.2721, -1.2689, -1.2653, -1.2614, -1.2572, -1.2527, -1.2479, -1.2427, -1.2373, -1.2316, -1.2257, -1.2195, -1.2130, -1.2064, -1.1996, -1.1926, -1.1855, -1.1782, -1.1708, -1.1633, -1.1558, -1.1482, -1.1407, -1.1331, -1.1255, -1.1180, -1.1106, -1.1032, -1.0959, -1.0888, -1.0817, -1.0748, -1.0680, -1.0614, -1.0549, -1.0486, -1.0424, -1.0364, -1.0305, -1.0247, -1.0190, -1.0134, -1.0079, -1.0025, -0.9971, -0.9918, -0.9865, -0.9812, -0.9759, -0.9706, -0.9652, -0.9598, -0.9543, -0.9487, -0.9431, -0.9374, -0.9315, -0.9256, -0.9195, -0.9134, -0.9071, -0.9007, -0.8943, -0.8877, -0.8810, -0.8743, -0.8675, -0.8607, -0.8537, -0.8468, -0.8398, -0.8328, -0.8258, -0.8188, -0.8119, -0.8049, -0.7980, -0.7912, -0.7844, -0.7776, -0.7710, -0.7644, -0.7578, -0.7514, -0.7450, -0.7387, -0.7325, -0.7264, -0.7203, -0.7143, -0.7084, -0.7025, -0.6967, -0.6910, -0.6853, -0.6797, -0.6742, -0.6687, -0.6632, -0.6578, -0.6524, -0.6471, -0.6418, -0.6365, -0.6313, -0.6260, -0.6208, -0.6156, -0.6104, -0.6051, -0.5999, -0.5947, -0.5895, -0.5842, -0.5790, -0.5737, -0.5683, -0.5630, -0.5576, -0.5522, -0.5467, -0.5412, -0.5357, -0.5302, -0.5246, -0.5190, -0.5133, -0.5077, -0.5020, -0.4964, -0.4908, -0.4851, -0.4796, -0.4740, -0.4685, -0.4631, -0.4578, -0.4526, -0.4474, -0.4424, -0.4375, -0.4328, -0.4282, -0.4237, -0.4195, -0.4153, -0.4113, -0.4075, -0.4038, -0.4003, -0.3970, -0.3940, -0.3912, -0.3887, -0.3864, -0.3844, -0.3827, -0.3811, -0.3798, -0.3787, -0.3778, -0.3770, -0.3764, -0.3759, -0.3755, -0.3752, -0.3749, -0.3746, -0.3744, -0.3740, -0.3737, -0.3732, -0.3727, -0.3720, -0.3712, -0.3703, -0.3691, -0.3678, -0.3663, -0.3646, -0.3627, -0.3606, -0.3582, -0.3556, -0.3527, -0.3496, -0.3463, -0.3427, -0.3389, -0.3348, -0.3304, -0.3258, -0.3210, -0.3159, -0.3106, -0.3050, -0.2992, -0.2933, -0.2872, -0.2810, -0.2750, -0.2689, -0.2629, -0.2570, -0.2511, -0.2452, -0.2394, -0.2336, -0.2279, -0.2221, -0.2164, -0.2107, -0.2049, -0.1992, -0.1934, -0.1876, -0.1817, -0.1759, -0.1699, -0.1639, -0.1578, -0.1517, -0.1455, -0.1393, -0.1329, -0.1265, -0.1200, -0.1135, -0.1068, -0.1001, -0.0934, -0.0865, -0.0796, -0.0726, -0.0656, -0.0584, -0.0512, -0.0440, -0.0366, -0.0292, -0.0218, -0.0142, -0.0066, 0.0011, 0.0088, 0.0165, 0.0243, 0.0321, 0.0398, 0.0474, 0.0551, 0.0628, 0.0706, 0.0785, 0.0865, 0.0946, 0.1028, 0.1111, 0.1195, 0.1281, 0.1368, 0.1456, 0.1546, 0.1637, 0.1730, 0.1825, 0.1921, 0.2020, 0.2120, 0.2222, 0.2326, 0.2433, 0.2541, 0.2652, 0.2765,};
@@ -38,6 +48,148 @@ public class SBD {
         return shift;
     }
 
+    public void setFFTThreshold(final int fftThreshold) {
+        this.fftThreshold = fftThreshold;
+    }
+
+    public int getFFTThreshold() {
+        return fftThreshold;
+    }
+
+    /**
+     * SBD from the transforms of both series, zero padded to the same power of two n >= a.length + b.length - 1.
+     * Only the first n/2+1 bins of b are used, the rest follow from the symmetry of real transforms.
+     *
+     * @param fft   plan of length n
+     * @param aRe   real part of the transform of a (n bins)
+     * @param aIm   imaginary part of the transform of a (n bins)
+     * @param aLen  length of a
+     * @param raa   dot(a, a)
+     * @param bRe   real part of the transform of b (at least n/2+1 bins)
+     * @param bIm   imaginary part of the transform of b (at least n/2+1 bins)
+     * @param bLen  length of b
+     * @param rbb   dot(b, b)
+     * @param workRe workspace of length n
+     * @param workIm workspace of length n
+     * @return SBD distance
+     */
+    public static double distance(final FFT fft,
+                                  final double[] aRe, final double[] aIm, final int aLen, final double raa,
+                                  final double[] bRe, final double[] bIm, final int bLen, final double rbb,
+                                  final double[] workRe, final double[] workIm) {
+        final int n = fft.length();
+        final int half = n / 2;
+        for (int k = 0; k <= half; k++)
+            conjTimes(aRe[k], aIm[k], bRe[k], bIm[k], k, n, workRe, workIm);
+        fft.inverse(workRe, workIm);
+        return 1 - maxNcc(workRe, n, aLen, bLen, raa, rbb);
+    }
+
+    /**
+     * Same as distance(...) with the transform of b stored as floats
+     */
+    public static double distance(final FFT fft,
+                                  final double[] aRe, final double[] aIm, final int aLen, final double raa,
+                                  final float[] bRe, final float[] bIm, final int bLen, final double rbb,
+                                  final double[] workRe, final double[] workIm) {
+        final int n = fft.length();
+        final int half = n / 2;
+        for (int k = 0; k <= half; k++)
+            conjTimes(aRe[k], aIm[k], bRe[k], bIm[k], k, n, workRe, workIm);
+        fft.inverse(workRe, workIm);
+        return 1 - maxNcc(workRe, n, aLen, bLen, raa, rbb);
+    }
+
+    /**
+     * Cross-correlations of two series a and c with the same series b with one inverse transform instead of two:
+     * both are real, so the inverse transform of conj(A)B + i conj(C)B has the cross-correlation of a in its real part
+     * and the one of c in its imaginary part. Pass each part to distance(cc, ...) to get the SBD.
+     *
+     * @param fft    plan of length n
+     * @param aRe    real part of the transform of a (n bins)
+     * @param aIm    imaginary part of the transform of a (n bins)
+     * @param cRe    real part of the transform of c (n bins)
+     * @param cIm    imaginary part of the transform of c (n bins)
+     * @param bRe    real part of the transform of b (at least n/2+1 bins)
+     * @param bIm    imaginary part of the transform of b (at least n/2+1 bins)
+     * @param workRe output of length n, cross-correlation of a and b
+     * @param workIm output of length n, cross-correlation of c and b
+     */
+    public static void crossCorrelations(final FFT fft,
+                                         final double[] aRe, final double[] aIm, final double[] cRe, final double[] cIm,
+                                         final double[] bRe, final double[] bIm,
+                                         final double[] workRe, final double[] workIm) {
+        final int n = fft.length();
+        final int half = n / 2;
+        for (int k = 0; k <= half; k++)
+            pairedConjTimes(aRe[k], aIm[k], cRe[k], cIm[k], bRe[k], bIm[k], k, n, workRe, workIm);
+        fft.inverse(workRe, workIm);
+    }
+
+    /**
+     * Same as crossCorrelations(...) with the transform of b stored as floats
+     */
+    public static void crossCorrelations(final FFT fft,
+                                         final double[] aRe, final double[] aIm, final double[] cRe, final double[] cIm,
+                                         final float[] bRe, final float[] bIm,
+                                         final double[] workRe, final double[] workIm) {
+        final int n = fft.length();
+        final int half = n / 2;
+        for (int k = 0; k <= half; k++)
+            pairedConjTimes(aRe[k], aIm[k], cRe[k], cIm[k], bRe[k], bIm[k], k, n, workRe, workIm);
+        fft.inverse(workRe, workIm);
+    }
+
+    /**
+     * SBD from a cross-correlation of length n from crossCorrelations
+     */
+    public static double distance(final double[] cc, final int n, final int aLen, final int bLen,
+                                  final double raa, final double rbb) {
+        return 1 - maxNcc(cc, n, aLen, bLen, raa, rbb);
+    }
+
+    // conj(A[k]) * B[k] + i conj(C[k]) * B[k] into bin k, and conj(A[k] * B[k]) + i conj(C[k] * B[k]) into bin n-k
+    private static void pairedConjTimes(final double ar, final double ai, final double cr, final double ci,
+                                        final double br, final double bi,
+                                        final int k, final int n, final double[] outRe, final double[] outIm) {
+        final double pr = ar * br + ai * bi;
+        final double pi = ar * bi - ai * br;
+        final double sr = cr * br + ci * bi;
+        final double si = cr * bi - ci * br;
+        outRe[k] = pr - si;
+        outIm[k] = pi + sr;
+        if (k > 0 && k < n - k) {
+            outRe[n - k] = pr + si;
+            outIm[n - k] = sr - pi;
+        }
+    }
+
+    // conj(A[k]) * B[k] into bin k, and its conjugate into bin n-k
+    private static void conjTimes(final double ar, final double ai, final double br, final double bi,
+                                  final int k, final int n, final double[] outRe, final double[] outIm) {
+        final double re = ar * br + ai * bi;
+        final double im = ar * bi - ai * br;
+        outRe[k] = re;
+        outIm[k] = im;
+        if (k > 0 && k < n - k) {
+            outRe[n - k] = re;
+            outIm[n - k] = -im;
+        }
+    }
+
+    // max of the normalised cross-correlation over the valid lags, floored like DSP.maxWithIndex
+    private static double maxNcc(final double[] cc, final int n, final int aLen, final int bLen,
+                                 final double raa, final double rbb) {
+        double maxCc = Double.NEGATIVE_INFINITY;
+        for (int lag = 1 - aLen; lag < bLen; lag++) {
+            final double value = cc[lag & (n - 1)];
+            if (value > maxCc)
+                maxCc = value;
+        }
+        final double ncc = maxCc / Math.sqrt(raa * rbb);
+        return ncc > Double.MIN_VALUE ? ncc : Double.MIN_VALUE;
+    }
+
     public double distance(final double[] a, final double[] b) {
         final double[] ncc = nccC(a, b);
 
@@ -49,21 +201,66 @@ public class SBD {
     }
 
     public double distance(final Sequence first, final Sequence second) {
-        if (second.length() > first.length())
-            return distance(second, first);
-        final double[] a = first.getData();
-        final double[] b = second.getData();
+        return distance(first.getBuffer(), first.getOffset(), first.length(),
+                second.getBuffer(), second.getOffset(), second.length());
+    }
 
-        final double[] ncc = nccC(a, b);
-        DSP.Pair max = DSP.maxWithIndex(ncc);
-        final double dist = 1 - max.value;
-        shift = max.index - a.length;
+    /**
+     * Same as distance(first, second) on slices of arrays, such as sequences packed into a buffer.
+     * The normalised cross-correlation is scanned lag by lag instead of being materialised,
+     * in the same order and with the same arithmetic as nccC and DSP.maxWithIndex.
+     */
+    public double distance(final double[] a, final int aOffset, final int aLen,
+                           final double[] b, final int bOffset, final int bLen) {
+        if (bLen > aLen)
+            return distance(b, bOffset, bLen, a, aOffset, aLen);
 
-        return dist;
+        final int maxlag = aLen - 1;
+        final boolean useFFT = aLen >= fftThreshold;
+        int n = 0;
+        if (useFFT) {
+            final FFT fft = FFT.plan(FFT.paddedLength(aLen + bLen - 1));
+            n = fft.length();
+            if (cc.length < n) {
+                cc = new double[n];
+                re = new double[n];
+                im = new double[n];
+                cIm = new double[n];
+            }
+            fft.xcorr(a, aOffset, aLen, b, bOffset, bLen, cc, re, im, cIm);
+        }
+        final double raa = DSP.dot(a, aOffset, a, aOffset, aLen);
+        final double rbb = DSP.dot(b, bOffset, b, bOffset, bLen);
+        final double denom = Math.sqrt(raa * rbb);
+
+        double maxNcc = Double.MIN_VALUE;
+        int maxIndex = -1;
+        for (int idx = 0; idx <= 2 * maxlag; idx++) {
+            final int lag = maxlag - idx;
+            double value = 0;
+            if (lag > -aLen && lag < bLen) {
+                if (useFFT) {
+                    value = cc[lag & (n - 1)];
+                } else {
+                    final int start = lag < 0 ? -lag : 0;
+                    final int end = Math.min(aLen - 1, bLen - lag - 1);
+                    for (int k = start; k <= end; k++)
+                        value += a[aOffset + k] * b[bOffset + lag + k];
+                }
+            }
+            final double ncc = value / denom;
+            if (ncc > maxNcc) {
+                maxNcc = ncc;
+                maxIndex = idx;
+            }
+        }
+        shift = maxIndex - aLen;
+
+        return 1 - maxNcc;
     }
 
     private double[] nccC(final double[] a, final double[] b) {
-        final double[] cc = DSP.xcorr(a, b);
+        final double[] cc = Math.max(a.length, b.length) >= fftThreshold ? DSP.xcorrFFT(a, b) : DSP.xcorr(a, b);
         final double raa = DSP.dot(a, a);
         final double rbb = DSP.dot(b, b);
         final double denom = Math.sqrt(raa * rbb);
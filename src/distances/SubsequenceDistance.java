@@ -47,14 +47,15 @@ public class SubsequenceDistance {
         final int diffLen = n - m;
         double bsfDist = Double.POSITIVE_INFINITY;
         for (int j = 0; j <= diffLen; j++) {
+            final double threshold = Math.min(bsfDist, cutOffValue);
             double dist = 0;
             for (int i = 0; i < m; i++) {
                 final double diff = first.value(i + j) - second.value(i);
                 dist += diff * diff;
-                if (dist > cutOffValue)
+                if (dist > threshold)
                     break;
             }
-            if (dist < bsfDist) bsfDist = dist;
+            if (dist < bsfDist && dist <= cutOffValue) bsfDist = dist;
         }
         return bsfDist;
     }
@@ -80,19 +81,20 @@ public class SubsequenceDistance {
     public final double distance(final double[] first, final double[] second, final double cutOffValue) {
         final int n = first.length;
         final int m = second.length;
-        if (n < m) return distance(second, first);
+        if (n < m) return distance(second, first, cutOffValue);
 
         final int diffLen = n - m;
         double bsfDist = Double.POSITIVE_INFINITY;
         for (int j = 0; j <= diffLen; j++) {
+            final double threshold = Math.min(bsfDist, cutOffValue);
             double dist = 0;
             for (int i = 0; i < m; i++) {
                 final double diff = first[i + j] - second[i];
                 dist += diff * diff;
-                if (dist > cutOffValue)
+                if (dist > threshold)
                     break;
             }
-            if (dist < bsfDist) bsfDist = dist;
+            if (dist < bsfDist && dist <= cutOffValue) bsfDist = dist;
         }
         return bsfDist;
     }
@@ -14,74 +14,160 @@ package distances;
 import data.Sequence;
 
 /**
- * This is a class to compute Uniform Scaling distance with Euclidean
+ * This is a class to compute Uniform Scaling distance with Euclidean.
+ * The scaled series are read on the fly instead of being materialised, and blocks of scaling lengths are
+ * skipped with a lower bound on the prefix that all of them share, taken against the envelope of the
+ * values that each point can be scaled from (LB_Keogh on the scaling envelope).
+ * Not thread safe, each thread needs its own instance.
  *
  * @author Chang Wei
  */
 public class UniformScalingEuclidean {
-    private Euclidean distComputer = new Euclidean();
-    public double[] scaledSeries;
+    // number of consecutive scaling lengths covered by one lower bound
+    private static final int BLOCK_SIZE = 32;
+
+    // best scaling of the last call, the scaled series is only built when asked for
+    private double[] bestSeries;
+    private int bestOffset;
+    private int bestLength;
+    private int bestScaledLength = -1;
+
+    // workspace for the envelope deques
+    private int[] maxDeque = new int[0];
+    private int[] minDeque = new int[0];
 
     public double distance(final Sequence a, final Sequence b) {
+        return distance(a, b, Double.POSITIVE_INFINITY);
+    }
+
+    public double distance(final Sequence a, final Sequence b, final double cutOffValue) {
         final int n = a.length(); // shorter
         final int m = b.length(); // longer
 
         if (n > m)
-            return distance(b, a);
+            return distance(b, a, cutOffValue);
+
+        return distance(a.getBuffer(), a.getOffset(), n, b.getBuffer(), b.getOffset(), m, cutOffValue);
+    }
 
-        final double[] bSeries = b.getData();
+    /**
+     * Distance on slices of arrays, such as sequences packed into a buffer
+     *
+     * @param a           buffer of the shorter series
+     * @param aOffset     start of the shorter series in a
+     * @param n           length of the shorter series
+     * @param b           buffer of the longer series
+     * @param bOffset     start of the longer series in b
+     * @param m           length of the longer series, at least n
+     * @param cutOffValue cut-off value, positive infinity is returned when no scaling is within it
+     * @return smallest Euclidean distance between a scaled to length p and the first p points of b
+     */
+    public double distance(final double[] a, final int aOffset, final int n,
+                           final double[] b, final int bOffset, final int m, final double cutOffValue) {
         double bsfDistance = Double.POSITIVE_INFINITY;
+        bestSeries = a;
+        bestOffset = aOffset;
+        bestLength = n;
+        bestScaledLength = -1;
+
         int start = n;
         if (n == m) {
             start = (int) (0.7 * n);
         }
 
-        for (int p = start; p <= m; p++) {
-            double[] firstSeries = new double[p];
-
-            for (int j = 0; j < p; j++) {
-                final int scalingFactor = (int) (1.0 * j * n / p);
-                firstSeries[j] = a.value(scalingFactor);
-            }
-            final double dist = distComputer.distance(firstSeries, bSeries, bsfDistance);
-            if (dist < bsfDistance) {
-                bsfDistance = dist;
-                scaledSeries = firstSeries;
+        for (int blockStart = start; blockStart <= m; blockStart += BLOCK_SIZE) {
+            final int blockEnd = Math.min(m, blockStart + BLOCK_SIZE - 1);
+            final double threshold = Math.min(bsfDistance, cutOffValue);
+            if (threshold < Double.POSITIVE_INFINITY &&
+                    lowerBound(a, aOffset, n, b, bOffset, blockStart, blockEnd, threshold) > threshold)
+                continue;
+
+            for (int p = blockStart; p <= blockEnd; p++) {
+                final double dist = scaledDistance(a, aOffset, n, b, bOffset, p, Math.min(bsfDistance, cutOffValue));
+                if (dist < bsfDistance) {
+                    bsfDistance = dist;
+                    bestScaledLength = p;
+                }
             }
         }
 
         return bsfDistance;
     }
 
-    public double distance(final Sequence a, final Sequence b, final double cutOffValue) {
-        final int n = a.length(); // shorter
-        final int m = b.length(); // longer
-
-        if (n > m)
-            return distance(b, a, cutOffValue);
-
-        final double[] bSeries = b.getData();
-        double bsfDistance = cutOffValue;
-
-        int start = n;
-        if (n == m) {
-            start = (int) (0.7 * n);
+    // squared Euclidean distance between a scaled to length p and the first p points of b
+    private static double scaledDistance(final double[] a, final int aOffset, final int n,
+                                         final double[] b, final int bOffset, final int p, final double cutOffValue) {
+        double dist = 0;
+        for (int j = 0; j < p; j++) {
+            final int scalingFactor = (int) (1.0 * j * n / p);
+            final double diff = a[aOffset + scalingFactor] - b[bOffset + j];
+            dist += diff * diff;
+            if (dist > cutOffValue)
+                return Double.POSITIVE_INFINITY;
         }
+        return dist;
+    }
 
-        for (int p = start; p <= m; p++) {
-            double[] firstSeries = new double[p];
-
-            for (int j = 0; j < p; j++) {
-                final int scalingFactor = (int) (1.0 * j * n / p);
-                firstSeries[j] = a.value(scalingFactor);
+    /**
+     * Lower bound of the distance for all scaling lengths in [pLo, pHi]. Point j < pLo is compared with
+     * a[(int)(j*n/p)] for every p in the block, so it is bounded by the min and max of a between the
+     * indices for pHi and pLo. Both ends only move forward, which gives the envelope with monotone deques.
+     */
+    private double lowerBound(final double[] a, final int aOffset, final int n, final double[] b, final int bOffset,
+                              final int pLo, final int pHi, final double cutOffValue) {
+        if (maxDeque.length < n) {
+            maxDeque = new int[n];
+            minDeque = new int[n];
+        }
+        int maxHead = 0, maxTail = 0;
+        int minHead = 0, minTail = 0;
+        int next = 0;
+        double lb = 0;
+        for (int j = 0; j < pLo; j++) {
+            final int lo = (int) (1.0 * j * n / pHi);
+            final int hi = (int) (1.0 * j * n / pLo);
+            for (; next <= hi; next++) {
+                while (maxTail > maxHead && a[aOffset + maxDeque[maxTail - 1]] <= a[aOffset + next]) maxTail--;
+                maxDeque[maxTail++] = next;
+                while (minTail > minHead && a[aOffset + minDeque[minTail - 1]] >= a[aOffset + next]) minTail--;
+                minDeque[minTail++] = next;
             }
-            final double dist = distComputer.distance(firstSeries, bSeries, bsfDistance);
-            if (dist < bsfDistance) {
-                bsfDistance = dist;
+            while (maxDeque[maxHead] < lo) maxHead++;
+            while (minDeque[minHead] < lo) minHead++;
+
+            final double upper = a[aOffset + maxDeque[maxHead]];
+            final double lower = a[aOffset + minDeque[minHead]];
+            final double value = b[bOffset + j];
+            if (value > upper) {
+                final double diff = value - upper;
+                lb += diff * diff;
+            } else if (value < lower) {
+                final double diff = lower - value;
+                lb += diff * diff;
             }
+            if (lb > cutOffValue)
+                return lb;
         }
+        return lb;
+    }
 
-        return bsfDistance;
+    /**
+     * @return scaling length of the best match in the last call, -1 if no scaling was within the cut-off
+     */
+    public int getScaledLength() {
+        return bestScaledLength;
     }
 
+    /**
+     * @return the shorter series of the last call scaled to the best length, built on request
+     */
+    public double[] getScaledSeries() {
+        if (bestScaledLength < 0)
+            return null;
+        final double[] scaledSeries = new double[bestScaledLength];
+        for (int j = 0; j < bestScaledLength; j++) {
+            scaledSeries[j] = bestSeries[bestOffset + (int) (1.0 * j * bestLength / bestScaledLength)];
+        }
+        return scaledSeries;
+    }
 }
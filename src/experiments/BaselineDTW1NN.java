@@ -99,6 +99,7 @@ public class BaselineDTW1NN {
 
         System.out.println("[BASELINE-DTW1NN] Start Classifying");
         final double accuracy = classifier.accuracy(testData);
+        classifier.pruningSummary();
         System.out.println(String.format("[BASELINE-DTW1NN] Accuracy: %.4f", accuracy));
         System.out.println(String.format("[BASELINE-DTW1NN] Loss: %.4f", 1 - accuracy));
 
@@ -0,0 +1,329 @@
+/* Copyright (C) 2019 Chang Wei Tan, Francois Petitjean, Geoff Webb
+ This file is part of Varying length TSC.
+ Varying length TSC is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, version 3 of the License.
+ Varying length TSC is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with Varying length TSC.  If not, see <http://www.gnu.org/licenses/>. */
+package experiments;
+
+import FileIO.OutFile;
+import classifiers.*;
+import data.Sequences;
+import data.UCRArchive;
+import dataProcessor.*;
+import normalization.NoNormalizer;
+import normalization.Normalizer;
+import normalization.ZNormalizer;
+import utilities.DataLoader;
+import utilities.Path;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This is a class to run a sweep of experiments: every combination of datasets, processors, normalisers,
+ * methods and classifiers, on a work-stealing pool.
+ * A job is only started once the memory it is estimated to need is available, so that large datasets
+ * do not run out of memory when they are scheduled together.
+ * Results are appended to one csv file as soon as each job is done, and a sweep that is run again
+ * skips the jobs already in the file, so a crashed sweep resumes where it stopped.
+ * ProximityForest is not included as it uses its own data structures.
+ *
+ * @author Chang Wei
+ */
+public class ExperimentRunner {
+    private static final String RESULT_FILE = "results.csv";
+    private static final String HEADER = "problem,process,norm,method,classifier,paramId,accuracy,loss,trainSize,testSize,seconds";
+    // loaded and processed datasets take a few times the size of the text files
+    private static final int MEMORY_FACTOR = 4;
+    private static final int MIN_JOB_MB = 16;
+
+    private final String outputPath;
+    private final String datasetPath;
+    private final int paramId;
+    private final Semaphore memory;
+    private final int memoryMB;
+    private final Set<String> done = new HashSet<>();
+    private final AtomicInteger finished = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private OutFile outFile;
+
+    public static void main(String[] args) throws Exception {
+        String outputPath = Path.setOutputPath();
+        String datasetPath = "C:/Users/" + System.getProperty("user.name") + "/workspace/Dataset/UCRArchive_2018_Uniform_Sampling/";
+        String datasets = "vary";
+        String classifiers = "Euclidean1NN,DTW1NN,SBD1NN,SSD1NN,USEuclidean1NN,BOSS";
+        String processes = "0,1,2,3,4";
+        String norms = "NoNorm,ZNorm";
+        String methods = "0";
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        int memoryMB = (int) (Runtime.getRuntime().maxMemory() / (1024 * 1024) * 3 / 4);
+        int paramId = 100;
+
+        if (args.length > 0) outputPath = args[0];
+        if (args.length > 1) datasetPath = args[1];
+        if (args.length > 2) datasets = args[2];
+        if (args.length > 3) classifiers = args[3];
+        if (args.length > 4) processes = args[4];
+        if (args.length > 5) norms = args[5];
+        if (args.length > 6) methods = args[6];
+        if (args.length > 7) numThreads = Integer.parseInt(args[7]);
+        if (args.length > 8) memoryMB = Integer.parseInt(args[8]);
+        if (args.length > 9) paramId = Integer.parseInt(args[9]);
+
+        final String[] problems;
+        if (datasets.equals("all")) problems = UCRArchive.allDatasets;
+        else if (datasets.equals("vary")) problems = UCRArchive.varyLengthDatasets;
+        else problems = datasets.split(",");
+
+        System.out.println(String.format("[EXPERIMENT-RUNNER] Output path:    %s", outputPath));
+        System.out.println(String.format("[EXPERIMENT-RUNNER] Dataset path:   %s", datasetPath));
+        System.out.println(String.format("[EXPERIMENT-RUNNER] Datasets:       %d", problems.length));
+        System.out.println(String.format("[EXPERIMENT-RUNNER] Classifiers:    %s", classifiers));
+        System.out.println(String.format("[EXPERIMENT-RUNNER] Processes:      %s", processes));
+        System.out.println(String.format("[EXPERIMENT-RUNNER] Norms:          %s", norms));
+        System.out.println(String.format("[EXPERIMENT-RUNNER] Methods:        %s", methods));
+        System.out.println(String.format("[EXPERIMENT-RUNNER] Threads:        %d", numThreads));
+        System.out.println(String.format("[EXPERIMENT-RUNNER] Memory (MB):    %d", memoryMB));
+        System.out.println(String.format("[EXPERIMENT-RUNNER] ParamID:        %d", paramId));
+
+        final ExperimentRunner runner = new ExperimentRunner(outputPath, datasetPath, memoryMB, paramId);
+        runner.run(problems, classifiers.split(","), toInts(processes), norms.split(","), toInts(methods), numThreads);
+    }
+
+    public ExperimentRunner(final String outputPath, final String datasetPath, final int memoryMB, final int paramId) {
+        this.outputPath = outputPath;
+        this.datasetPath = datasetPath;
+        this.paramId = paramId;
+        this.memoryMB = Math.max(memoryMB, MIN_JOB_MB);
+        this.memory = new Semaphore(this.memoryMB, true);
+    }
+
+    /**
+     * Run all the combinations that are not in the result file yet
+     */
+    public void run(final String[] problems, final String[] classifiers, final int[] processes,
+                    final String[] norms, final int[] methods, final int numThreads) throws IOException {
+        final File resultFile = new File(outputPath, RESULT_FILE);
+        readDone(resultFile);
+        final boolean newFile = !resultFile.isFile() || resultFile.length() == 0;
+        outFile = new OutFile(outputPath, RESULT_FILE, true);
+        if (newFile) outFile.writeLineAndFlush(HEADER);
+        else if (!endsWithNewLine(resultFile)) outFile.writeLineAndFlush("");
+
+        final List<Job> jobs = new ArrayList<>();
+        for (String problem : problems) {
+            for (String classifier : classifiers) {
+                for (int process : processes) {
+                    if (!applicable(classifier, process)) continue;
+                    for (String norm : norms) {
+                        for (int method : methods) {
+                            final Job job = new Job(problem, process, norm, method, classifier);
+                            if (!done.contains(job.key())) jobs.add(job);
+                        }
+                    }
+                }
+            }
+        }
+        System.out.println(String.format("[EXPERIMENT-RUNNER] %d jobs to run, %d already done", jobs.size(), done.size()));
+
+        final long start = System.nanoTime();
+        final ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            for (Job job : jobs) pool.execute(job);
+            pool.shutdown();
+            while (!pool.isTerminated()) {
+                try {
+                    pool.awaitTermination(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+            outFile.closeFile();
+        }
+        System.out.println(String.format("[EXPERIMENT-RUNNER] Finished %d jobs, %d failed, in %.3f s",
+                finished.get(), failed.get(), (System.nanoTime() - start) / 1e9));
+    }
+
+    /**
+     * BOSS does not work on series of different lengths
+     */
+    private static boolean applicable(final String classifier, final int process) {
+        return !(classifier.equals("BOSS") && (process == 0 || process == 2));
+    }
+
+    /**
+     * Read the keys of the jobs already in the result file, ignoring the header and lines cut by a crash
+     */
+    private void readDone(final File resultFile) throws IOException {
+        if (!resultFile.isFile()) return;
+        try (BufferedReader reader = new BufferedReader(new FileReader(resultFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] cells = line.split(",");
+                if (cells.length != HEADER.split(",").length || line.equals(HEADER)) continue;
+                try {
+                    Double.parseDouble(cells[cells.length - 1]);
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                done.add(String.join(",", Arrays.copyOf(cells, 6)));
+            }
+        }
+    }
+
+    /**
+     * A crash can leave the last line cut, new results must not be appended to it
+     */
+    private static boolean endsWithNewLine(final File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(raf.length() - 1);
+            return raf.read() == '\n';
+        }
+    }
+
+    private synchronized void writeResult(final String line) {
+        outFile.writeLineAndFlush(line);
+    }
+
+    /**
+     * Memory needed by a job in MB, from the size of its files
+     */
+    private int estimateMB(final String problem) {
+        final long bytes = new File(trainFile(problem)).length() + new File(testFile(problem)).length();
+        final long mb = MEMORY_FACTOR * bytes / (1024 * 1024);
+        return (int) Math.min(memoryMB, Math.max(MIN_JOB_MB, mb));
+    }
+
+    private String trainFile(final String problem) {
+        return datasetPath + problem + "/" + problem + "_TRAIN.tsv";
+    }
+
+    private String testFile(final String problem) {
+        return datasetPath + problem + "/" + problem + "_TEST.tsv";
+    }
+
+    private static int[] toInts(final String values) {
+        return Arrays.stream(values.split(",")).mapToInt(Integer::parseInt).toArray();
+    }
+
+    private static DataProcessor getDataProcessor(final int process) {
+        switch (process) {
+            case 0: // no processing
+                return new NoProcessing();
+            case 1: // prefix suffix noise
+                return new PrefixSuffixNoisePadder();
+            case 2: // prefix suffix zero
+                return new PrefixSuffixZeroPadder();
+            case 3: // rescale
+                return new SameLengthRescaler();
+            case 4: // suffix noise
+                return new SuffixNoisePadder();
+            default:
+                throw new IllegalArgumentException("Unknown process: " + process);
+        }
+    }
+
+    private static Normalizer getNormalizer(final String norm) {
+        if (norm.equals("NoNorm")) return new NoNormalizer();
+        return new ZNormalizer();
+    }
+
+    private static TimeseriesClassifier getClassifier(final String classifier) {
+        switch (classifier) {
+            case "Euclidean1NN":
+                return new Euclidean1NN();
+            case "DTW1NN":
+                return new DTW1NN();
+            case "SBD1NN":
+                return new SBD1NN();
+            case "SSD1NN":
+                return new SSD1NN();
+            case "USEuclidean1NN":
+                return new USEuclidean1NN();
+            case "BOSS":
+                return new BOSS();
+            default:
+                throw new IllegalArgumentException("Unknown classifier: " + classifier);
+        }
+    }
+
+    /**
+     * One combination of dataset, processor, normaliser, method and classifier
+     */
+    private class Job implements Runnable {
+        final String problem;
+        final int process;
+        final String norm;
+        final int method;
+        final String classifier;
+
+        Job(final String problem, final int process, final String norm, final int method, final String classifier) {
+            this.problem = problem;
+            this.process = process;
+            this.norm = norm;
+            this.method = method;
+            this.classifier = classifier;
+        }
+
+        String key() {
+            return problem + "," + process + "," + norm + "," + method + "," + classifier + "," + paramId;
+        }
+
+        @Override
+        public void run() {
+            final int permits = estimateMB(problem);
+            try {
+                memory.acquire(permits);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                final long start = System.nanoTime();
+                final DataLoader dataLoader = new DataLoader(false);
+                // a fresh processor per job so that the noise does not depend on the order the jobs are run
+                final DataProcessor dataProcessor = getDataProcessor(process);
+                final Normalizer normalizer = getNormalizer(norm);
+                final Sequences trainData = dataLoader.loadTrainData(datasetPath, problem, dataProcessor, normalizer, method);
+                final Sequences testData = dataLoader.loadTestData(datasetPath, problem, dataProcessor, normalizer, method);
+
+                final TimeseriesClassifier model = getClassifier(classifier);
+                model.buildClassifier(trainData);
+                model.setParamsFromParamId(paramId);
+                final double accuracy = model.accuracy(testData);
+                final double seconds = (System.nanoTime() - start) / 1e9;
+
+                writeResult(key() + "," + accuracy + "," + (1 - accuracy) + "," +
+                        trainData.size() + "," + testData.size() + "," + seconds);
+                System.out.println(String.format("[EXPERIMENT-RUNNER] %d done: %s, accuracy %.4f in %.3f s",
+                        finished.incrementAndGet(), key(), accuracy, seconds));
+            } catch (Exception | OutOfMemoryError e) {
+                failed.incrementAndGet();
+                System.err.println(String.format("[EXPERIMENT-RUNNER] Failed: %s: %s", key(), e));
+            } finally {
+                memory.release(permits);
+            }
+        }
+    }
+}
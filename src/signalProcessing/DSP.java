@@ -84,6 +84,28 @@ public class DSP {
         return xcorr(a, a);
     }
 
+    /*
+     * Same output as xcorr(a, b), computed with FFT on the inputs zero padded to a
+     * power of two of at least a.length + b.length - 1. O((n+m)log(n+m)) instead
+     * of O(n*m), results match xcorr up to floating point rounding.
+     */
+    public static double[] xcorrFFT(double[] a, double[] b) {
+        final int maxlag = Math.max(a.length, b.length) - 1;
+        final FFT fft = FFT.plan(FFT.paddedLength(a.length + b.length - 1));
+        final int n = fft.length();
+        final double[] c = new double[n];
+        fft.xcorr(a, b, c);
+
+        double[] y = new double[2 * maxlag + 1];
+        for (int idx = 0; idx < y.length; idx++) {
+            final int lag = maxlag - idx;
+            if (lag > -a.length && lag < b.length)
+                y[idx] = c[lag & (n - 1)];
+        }
+
+        return (y);
+    }
+
     public static double[] xcorr(double[] a, double[] b, int maxlag) {
         double[] y = new double[2 * maxlag + 1];
         Arrays.fill(y, 0);
@@ -181,6 +203,18 @@ public class DSP {
 
     }
 
+    /*
+     * Same as dot(a, b) on slices of arrays, such as sequences packed into a buffer
+     */
+    public static double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        double y = 0;
+
+        for (int x = 0; x < length; x++)
+            y += a[aOffset + x] * b[bOffset + x];
+
+        return y;
+    }
+
 
     public static double[] times(double[] a, double[] b) {
         double[] y = new double[a.length];
@@ -0,0 +1,190 @@
+/* Copyright (C) 2019 Chang Wei Tan, Francois Petitjean, Geoff Webb
+ This file is part of Varying length TSC.
+ Varying length TSC is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, version 3 of the License.
+ Varying length TSC is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with Varying length TSC.  If not, see <http://www.gnu.org/licenses/>. */
+package signalProcessing;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This is a class for in-place radix-2 FFT. A plan holds the twiddle factors and the bit reversal
+ * permutation for one power-of-two length, and is cached so that it is only built once per length.
+ * Plans are immutable and can be shared between threads.
+ *
+ * @author Chang Wei
+ */
+public class FFT {
+    private static final ConcurrentHashMap<Integer, FFT> plans = new ConcurrentHashMap<>();
+
+    private final int n;
+    private final double[] cos;     // cos(2*pi*k/n), k < n/2
+    private final double[] sin;     // sin(2*pi*k/n), k < n/2
+    private final int[] reversed;   // bit reversal permutation
+
+    private FFT(final int n) {
+        this.n = n;
+        final int half = n / 2;
+        cos = new double[half];
+        sin = new double[half];
+        for (int k = 0; k < half; k++) {
+            final double angle = 2 * Math.PI * k / n;
+            cos[k] = Math.cos(angle);
+            sin[k] = Math.sin(angle);
+        }
+
+        reversed = new int[n];
+        final int bits = Integer.numberOfTrailingZeros(n);
+        for (int i = 0; i < n; i++)
+            reversed[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+    }
+
+    /**
+     * @param n a power of two
+     * @return cached plan for length n
+     */
+    public static FFT plan(final int n) {
+        if (n < 1 || Integer.bitCount(n) != 1)
+            throw new IllegalArgumentException("FFT length must be a power of two: " + n);
+        return plans.computeIfAbsent(n, FFT::new);
+    }
+
+    /**
+     * @param minLength minimum length
+     * @return smallest power of two that is at least minLength
+     */
+    public static int paddedLength(final int minLength) {
+        if (minLength <= 1)
+            return 1;
+        return Integer.highestOneBit(minLength - 1) << 1;
+    }
+
+    public int length() {
+        return n;
+    }
+
+    public void forward(final double[] re, final double[] im) {
+        transform(re, im, -1);
+    }
+
+    /**
+     * Inverse transform, scaled by 1/n
+     */
+    public void inverse(final double[] re, final double[] im) {
+        transform(re, im, 1);
+        final double scale = 1.0 / n;
+        for (int i = 0; i < n; i++) {
+            re[i] *= scale;
+            im[i] *= scale;
+        }
+    }
+
+    private void transform(final double[] re, final double[] im, final int sign) {
+        for (int i = 0; i < n; i++) {
+            final int j = reversed[i];
+            if (j > i) {
+                double tmp = re[i];
+                re[i] = re[j];
+                re[j] = tmp;
+                tmp = im[i];
+                im[i] = im[j];
+                im[j] = tmp;
+            }
+        }
+
+        for (int size = 2; size <= n; size <<= 1) {
+            final int half = size >> 1;
+            final int step = n / size;
+            for (int start = 0; start < n; start += size) {
+                for (int k = 0, t = 0; k < half; k++, t += step) {
+                    final double wr = cos[t];
+                    final double wi = sign * sin[t];
+                    final int even = start + k;
+                    final int odd = even + half;
+                    final double xr = re[odd] * wr - im[odd] * wi;
+                    final double xi = re[odd] * wi + im[odd] * wr;
+                    re[odd] = re[even] - xr;
+                    im[odd] = im[even] - xi;
+                    re[even] += xr;
+                    im[even] += xi;
+                }
+            }
+        }
+    }
+
+    /**
+     * Transform a real series zero padded to the length of this plan
+     *
+     * @param series series, not longer than the plan
+     * @param re     real part of the transform
+     * @param im     imaginary part of the transform
+     */
+    public void forwardReal(final double[] series, final double[] re, final double[] im) {
+        forwardReal(series, 0, series.length, re, im);
+    }
+
+    /**
+     * Same as forwardReal(series, re, im) on a slice of an array, such as a sequence packed into a buffer
+     */
+    public void forwardReal(final double[] series, final int offset, final int length, final double[] re, final double[] im) {
+        System.arraycopy(series, offset, re, 0, length);
+        Arrays.fill(re, length, n, 0);
+        Arrays.fill(im, 0, n, 0);
+        forward(re, im);
+    }
+
+    /**
+     * Cross-correlation of two real series with one forward and one inverse transform,
+     * by packing a and b into the real and imaginary parts of the same complex series.
+     * The output of length n is circular: out[s mod n] = sum_k a[k]*b[k+s],
+     * which is exact when n >= a.length + b.length - 1
+     *
+     * @param a   first series
+     * @param b   second series
+     * @param out output of length n
+     */
+    public void xcorr(final double[] a, final double[] b, final double[] out) {
+        xcorr(a, b, out, new double[n], new double[n], new double[n]);
+    }
+
+    /**
+     * Same as xcorr(a, b, out) with caller provided workspace of length at least n
+     */
+    public void xcorr(final double[] a, final double[] b, final double[] out,
+                      final double[] re, final double[] im, final double[] cIm) {
+        xcorr(a, 0, a.length, b, 0, b.length, out, re, im, cIm);
+    }
+
+    /**
+     * Same as xcorr(a, b, out, re, im, cIm) on slices of arrays, such as sequences packed into a buffer
+     */
+    public void xcorr(final double[] a, final int aOffset, final int aLen,
+                      final double[] b, final int bOffset, final int bLen,
+                      final double[] out, final double[] re, final double[] im, final double[] cIm) {
+        System.arraycopy(a, aOffset, re, 0, aLen);
+        Arrays.fill(re, aLen, n, 0);
+        System.arraycopy(b, bOffset, im, 0, bLen);
+        Arrays.fill(im, bLen, n, 0);
+        forward(re, im);
+
+        // split Z = A + iB, then C = conj(A) * B
+        final double[] cRe = out;
+        for (int k = 0; k < n; k++) {
+            final int nk = (n - k) & (n - 1);
+            final double zr = re[k], zi = im[k];
+            final double zr2 = re[nk], zi2 = -im[nk];      // conj(Z[n-k])
+            final double ar = 0.5 * (zr + zr2), ai = 0.5 * (zi + zi2);
+            final double br = 0.5 * (zi - zi2), bi = -0.5 * (zr - zr2);
+            cRe[k] = ar * br + ai * bi;
+            cIm[k] = ar * bi - ai * br;
+        }
+        inverse(cRe, cIm);
+    }
+}
@@ -11,6 +11,9 @@
  along with Varying length TSC.  If not, see <http://www.gnu.org/licenses/>. */
 package utilities;
 
+import FileIO.UCRBinary;
+import FileIO.UCRParser;
+import FileIO.UCRTable;
 import data.Sequence;
 import data.Sequences;
 import dataProcessor.DataProcessor;
@@ -20,10 +23,9 @@ import datasets.ListDataset;
 import normalization.Normalizer;
 import normalization.ZNormalizer;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Random;
 
 /**
@@ -33,9 +35,9 @@ import java.util.Random;
  */
 public class DataLoader {
     private static String datasetPath = Path.datasetPath;
-    private static final String delimiter = "\t";
-    private static final String nan = "NaN";
     private boolean PRINT = true;
+    private boolean binaryCache = true;
+    private ProcessedDataCache processedCache = ProcessedDataCache.getDefault();
 
     public DataLoader() {
 
@@ -45,6 +47,20 @@ public class DataLoader {
         PRINT = print;
     }
 
+    /**
+     * Cache of the processed datasets, null to process the data on every load
+     */
+    public void setProcessedCache(final ProcessedDataCache processedCache) {
+        this.processedCache = processedCache;
+    }
+
+    /**
+     * Whether the UCR files are stored in binary next to the tsv files on the first load, and read from there after
+     */
+    public void setBinaryCache(final boolean binaryCache) {
+        this.binaryCache = binaryCache;
+    }
+
     public static void main(String[] args) {
         System.out.println("[DATALOADER] Test begins");
         testDataLoader();
@@ -143,56 +159,42 @@ public class DataLoader {
     private Sequences readPadNorm(final String filename) {
         final Sequences dataset = new Sequences();
         final ArrayList<Integer> classVals = new ArrayList<>();
+        final HashSet<Integer> distinctClasses = new HashSet<>();
         final ArrayList<Integer> lengths = new ArrayList<>();
-        final String nan = "NaN";
-
-        BufferedReader br = null;
-        String line;
+        final HashSet<Integer> distinctLengths = new HashSet<>();
 
         int maxlen = Integer.MIN_VALUE;
         int minlen = Integer.MAX_VALUE;
-        int minClass = Integer.MAX_VALUE;
         Random random = new Random(100);
 
         if (PRINT) System.out.println("[DATALOADER] Reading " + filename);
         try {
-            br = new BufferedReader(new FileReader(filename));
-            while ((line = br.readLine()) != null) {
-                final String[] data = line.split(delimiter);
-                int seqLen = data.length - 1;
-                final double[] tmp = new double[seqLen];
-
-                final int tsClass = Integer.parseInt(data[0]);
-                if (!classVals.contains(tsClass)) classVals.add(tsClass);
-                if (tsClass < minClass) minClass = tsClass;
+            final UCRTable table = readTable(filename);
+            for (int row = 0; row < table.size(); row++) {
+                final int seqLen = table.width(row);
+                final double[] ts = new double[seqLen];
 
+                final int tsClass = table.label(row);
+                if (distinctClasses.add(tsClass)) classVals.add(tsClass);
 
                 double sum = 0;
                 double sum2 = 0;
-                for (int i = 1; i < data.length; i++) {
-                    if (data[i].equals(nan)) {
-                        final double val = random.nextDouble() / 1000;
-                        tmp[i - 1] = val;
-                        sum += val;
-                        sum2 += val * val;
-                        continue;
-                    }
-                    final double val = Double.parseDouble(data[i]);
-                    tmp[i - 1] = val;
+                for (int i = 0; i < seqLen; i++) {
+                    double val = table.value(row, i);
+                    if (Double.isNaN(val)) val = random.nextDouble() / 1000;
+                    ts[i] = val;
                     sum += val;
                     sum2 += val * val;
                 }
                 final double mean = sum / seqLen;
                 final double sd = Math.sqrt(sum2 / (seqLen) - mean * mean);
                 for (int i = 0; i < seqLen; i++) {
-                    tmp[i] = (tmp[i] - mean) / sd;
+                    ts[i] = (ts[i] - mean) / sd;
                 }
-                final double[] ts = new double[seqLen];
-                System.arraycopy(tmp, 0, ts, 0, seqLen);
 
                 maxlen = Math.max(maxlen, seqLen);
                 minlen = Math.min(minlen, seqLen);
-                if (!lengths.contains(seqLen)) lengths.add(seqLen);
+                if (distinctLengths.add(seqLen)) lengths.add(seqLen);
 
                 final Sequence sequence = new Sequence(ts, tsClass);
                 dataset.add(sequence);
@@ -201,14 +203,6 @@ public class DataLoader {
             dataset.updateClass(classVals);
         } catch (IOException e) {
             e.printStackTrace();
-        } finally {
-            if (br != null) {
-                try {
-                    br.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
         }
 
         return dataset;
@@ -217,30 +211,26 @@ public class DataLoader {
     private Sequences readData(final String filename) {
         final Sequences dataset = new Sequences();
         final ArrayList<Integer> classVals = new ArrayList<>();
+        final HashSet<Integer> distinctClasses = new HashSet<>();
         final ArrayList<Integer> lengths = new ArrayList<>();
-
-        BufferedReader br = null;
-        String line;
+        final HashSet<Integer> distinctLengths = new HashSet<>();
 
         int maxlen = Integer.MIN_VALUE;
         int minlen = Integer.MAX_VALUE;
-        int minClass = Integer.MAX_VALUE;
 
         if (PRINT) System.out.println("[DATALOADER] Reading " + filename);
         try {
-            br = new BufferedReader(new FileReader(filename));
-            while ((line = br.readLine()) != null) {
-                final String[] data = line.split(delimiter);
-                int seqLen = data.length - 1;
-                final double[] ts = ucr2series(data);
+            final UCRTable table = readTable(filename);
+            for (int row = 0; row < table.size(); row++) {
+                final int seqLen = table.width(row);
+                final double[] ts = table.series(row);
 
-                final int tsClass = Integer.parseInt(data[0]);
-                if (!classVals.contains(tsClass)) classVals.add(tsClass);
-                if (tsClass < minClass) minClass = tsClass;
+                final int tsClass = table.label(row);
+                if (distinctClasses.add(tsClass)) classVals.add(tsClass);
 
                 maxlen = Math.max(maxlen, seqLen);
                 minlen = Math.min(minlen, seqLen);
-                if (!lengths.contains(seqLen)) lengths.add(seqLen);
+                if (distinctLengths.add(seqLen)) lengths.add(seqLen);
 
                 final Sequence sequence = new Sequence(ts, tsClass);
                 dataset.add(sequence);
@@ -249,14 +239,6 @@ public class DataLoader {
             dataset.updateClass(classVals);
         } catch (IOException e) {
             e.printStackTrace();
-        } finally {
-            if (br != null) {
-                try {
-                    br.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
         }
 
         return dataset;
@@ -336,80 +318,111 @@ public class DataLoader {
      * @return UCR dataset
      */
     private Sequences readData(final String filename, final DataProcessor dataProcessor, final Normalizer normalizer, final int method) {
+        if (PRINT) System.out.println("[DATALOADER] Reading " + filename);
+        try {
+            // the state of a random generator shared with the caller cannot be restored on a hit
+            if (processedCache == null || dataProcessor.hasSharedRandom())
+                return toSequences(process(readTable(filename), dataProcessor, normalizer, method));
+
+            final String key = ProcessedDataCache.key(filename, dataProcessor, normalizer, method);
+            final ProcessedDataCache.Entry cached = processedCache.get(filename, key);
+            if (cached != null) {
+                dataProcessor.setRandomState(cached.randomState);
+                return toSequences(cached.table);
+            }
+            final UCRTable processed = process(readTable(filename), dataProcessor, normalizer, method);
+            processedCache.put(filename, key, new ProcessedDataCache.Entry(processed, dataProcessor.getRandomState()));
+            return toSequences(processed);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return new Sequences();
+    }
+
+    /**
+     * Pre-process and normalise every row of a UCR file
+     *
+     * @return processed series with their raw labels
+     */
+    private UCRTable process(final UCRTable table, final DataProcessor dataProcessor, final Normalizer normalizer, final int method) {
+        final double[][] rows = new double[table.size()][];
+        final int[] offsets = new int[table.size() + 1];
+        for (int row = 0; row < table.size(); row++) {
+            final int maxLen = table.width(row);
+            final double[] series = table.series(row);
+            double[] ts;
+            if (method == 0) {
+                ts = dataProcessor.process(series, maxLen);
+                ts = normalizer.normalize(ts);
+            } else {
+                ts = normalizer.normalize(series);
+                ts = dataProcessor.process(ts, maxLen);
+            }
+            rows[row] = ts;
+            offsets[row + 1] = offsets[row] + ts.length;
+        }
+
+        final double[] values = new double[offsets[table.size()]];
+        final int[] labels = new int[table.size()];
+        for (int row = 0; row < table.size(); row++) {
+            System.arraycopy(rows[row], 0, values, offsets[row], rows[row].length);
+            labels[row] = table.label(row);
+        }
+        return new UCRTable(values, offsets, labels);
+    }
+
+    /**
+     * Build the dataset from processed series, each row is a series
+     */
+    private Sequences toSequences(final UCRTable table) {
         final Sequences dataset = new Sequences();
         final ArrayList<Integer> classVals = new ArrayList<>();
+        final HashSet<Integer> distinctClasses = new HashSet<>();
         final ArrayList<Integer> lengths = new ArrayList<>();
-
-        BufferedReader br = null;
-        String line;
+        final HashSet<Integer> distinctLengths = new HashSet<>();
 
         int maxlen = Integer.MIN_VALUE;
         int minlen = Integer.MAX_VALUE;
-        int minClass = Integer.MAX_VALUE;
 
-        if (PRINT) System.out.println("[DATALOADER] Reading " + filename);
-        try {
-            br = new BufferedReader(new FileReader(filename));
-            while ((line = br.readLine()) != null) {
-                final String[] data = line.split(delimiter);
-                final int maxLen = data.length - 1;
-                final int tsClass = Integer.parseInt(data[0]);
-                if (!classVals.contains(tsClass)) classVals.add(tsClass);
-                if (tsClass < minClass) minClass = tsClass;
-
-                final double[] series = ucr2series(data);
-                double[] ts;
-                if (method == 0) {
-                    ts = dataProcessor.process(series, maxLen);
-                    ts = normalizer.normalize(ts);
-                } else {
-                    ts = normalizer.normalize(series);
-                    ts = dataProcessor.process(ts, maxLen);
-                }
-                final int seqLen = ts.length;
+        for (int row = 0; row < table.size(); row++) {
+            final int tsClass = table.label(row);
+            if (distinctClasses.add(tsClass)) classVals.add(tsClass);
 
-                maxlen = Math.max(maxlen, seqLen);
-                minlen = Math.min(minlen, seqLen);
-                if (!lengths.contains(seqLen)) lengths.add(seqLen);
+            final double[] ts = table.row(row);
+            final int seqLen = ts.length;
 
-                final Sequence sequence = new Sequence(ts, tsClass);
-                dataset.add(sequence);
-            }
-            dataset.setLengths(lengths, maxlen, minlen);
-            dataset.updateClass(classVals);
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            if (br != null) {
-                try {
-                    br.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
+            maxlen = Math.max(maxlen, seqLen);
+            minlen = Math.min(minlen, seqLen);
+            if (distinctLengths.add(seqLen)) lengths.add(seqLen);
 
+            final Sequence sequence = new Sequence(ts, tsClass);
+            dataset.add(sequence);
+        }
+        dataset.setLengths(lengths, maxlen, minlen);
+        dataset.updateClass(classVals);
         return dataset;
     }
 
     /**
-     * A method to convert string data to double.
+     * Read the labels and cells of a UCR file, with the NaN padding kept
      *
-     * @param data String data in UCR format. data[0] is class, so start with data[1]
-     * @return time series data
+     * @param filename UCR dataset file
+     * @return content of the file
      */
-    private double[] ucr2series(String[] data) {
-        int seqLen = data.length - 1;
-        final double[] arr = new double[seqLen];
-        for (int i = 1; i < data.length; i++) {
-            if (data[i].equals(nan)) {
-                seqLen = i - 1;
-                break;
+    private UCRTable readTable(final String filename) throws IOException {
+        if (binaryCache) {
+            final UCRTable cached = UCRBinary.load(filename);
+            if (cached != null) return cached;
+        }
+        final UCRTable table = UCRParser.parse(filename);
+        if (binaryCache) {
+            try {
+                UCRBinary.save(table, filename);
+            } catch (IOException e) {
+                System.err.println("[DATALOADER] Could not write the binary copy of " + filename + ": " + e);
             }
-            arr[i - 1] = Double.parseDouble(data[i]);
         }
-        final double[] ts = new double[seqLen];
-        System.arraycopy(arr, 0, ts, 0, seqLen);
-        return ts;
+        return table;
     }
 }
@@ -0,0 +1,269 @@
+/* Copyright (C) 2019 Chang Wei Tan, Francois Petitjean, Geoff Webb
+ This file is part of Varying length TSC.
+ Varying length TSC is free software: you can redistribute it and/or modify
+ it under the terms of the GNU General Public License as published by
+ the Free Software Foundation, version 3 of the License.
+ Varying length TSC is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with Varying length TSC.  If not, see <http://www.gnu.org/licenses/>. */
+package utilities;
+
+import FileIO.UCRBinary;
+import FileIO.UCRTable;
+import dataProcessor.DataProcessor;
+import normalization.Normalizer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This is a class to cache datasets after pre-processing and normalisation, in memory and on disk.
+ * An entry is keyed by the content of everything that determines the result: the source file (path, size
+ * and last modified time), the processor class and the state of its random generator, the serialised
+ * normaliser and the method. It keeps the processed series with their raw labels, and the state of the
+ * random generator after processing, which is restored on a hit so that the next load (e.g. the test set
+ * after the train set) gives the same result as without the cache.
+ * Entries on disk are stored in a "processed" directory next to the source file. Each directory keeps at most
+ * maxDiskEntries entries: the least recently used ones (by modification time, which a hit refreshes) are deleted
+ * when a new one is written. clearDisk(root) deletes all the entries under a directory of datasets.
+ * Results of processors with a random generator shared with the caller are not cached, see DataProcessor.
+ *
+ * @author Chang Wei
+ */
+public class ProcessedDataCache {
+    public static final String DIRECTORY = "processed";
+    private static final int DEFAULT_MAX_ENTRIES = 16;
+    private static final int DEFAULT_MAX_DISK_ENTRIES = 64;
+    private static final ProcessedDataCache DEFAULT = new ProcessedDataCache(DEFAULT_MAX_ENTRIES, true);
+
+    private final Map<String, Entry> memory;
+    private final boolean useDisk;
+    private final int maxDiskEntries;
+    private long memoryHits, diskHits, misses;
+
+    /**
+     * Processed series with their raw labels, and the serialised state of the random generator after processing
+     */
+    public static class Entry {
+        public final UCRTable table;
+        public final byte[] randomState;
+
+        public Entry(final UCRTable table, final byte[] randomState) {
+            this.table = table;
+            this.randomState = randomState;
+        }
+    }
+
+    /**
+     * @param maxEntries number of entries kept in memory, least recently used first out
+     * @param useDisk    whether entries are also stored on disk
+     */
+    public ProcessedDataCache(final int maxEntries, final boolean useDisk) {
+        this(maxEntries, useDisk, DEFAULT_MAX_DISK_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries     number of entries kept in memory, least recently used first out
+     * @param useDisk        whether entries are also stored on disk
+     * @param maxDiskEntries number of entries kept on disk in each processed directory, least recently used first out
+     */
+    public ProcessedDataCache(final int maxEntries, final boolean useDisk, final int maxDiskEntries) {
+        if (maxDiskEntries < 1)
+            throw new IllegalArgumentException("maxDiskEntries must be at least 1: " + maxDiskEntries);
+        this.useDisk = useDisk;
+        this.maxDiskEntries = maxDiskEntries;
+        this.memory = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return cache shared by the data loaders by default
+     */
+    public static ProcessedDataCache getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Key of the result of processing a file, to be computed before processing
+     *
+     * @param filename      UCR dataset file
+     * @param dataProcessor processor, in the state it will process the file with
+     * @param normalizer    normaliser
+     * @param method        pre-processed first (0) or normalised first (1)
+     * @return hexadecimal key
+     */
+    public static String key(final String filename, final DataProcessor dataProcessor,
+                             final Normalizer normalizer, final int method) throws IOException {
+        final File source = new File(filename);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(source.getCanonicalPath());
+            out.writeLong(source.length());
+            out.writeLong(source.lastModified());
+            out.writeUTF(dataProcessor.getClass().getName());
+            out.write(dataProcessor.getRandomState());
+            out.writeUTF(normalizer.getClass().getName());
+            final ByteArrayOutputStream normalizerBytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream normalizerOut = new ObjectOutputStream(normalizerBytes)) {
+                normalizerOut.writeObject(normalizer);
+            }
+            out.write(normalizerBytes.toByteArray());
+            out.writeInt(method);
+        }
+
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes.toByteArray());
+            final StringBuilder key = new StringBuilder();
+            for (final byte b : digest)
+                key.append(String.format("%02x", b));
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param filename UCR dataset file
+     * @param key      key from key(...)
+     * @return cached entry, or null
+     */
+    public Entry get(final String filename, final String key) {
+        synchronized (memory) {
+            final Entry entry = memory.get(key);
+            if (entry != null) {
+                memoryHits++;
+                return entry;
+            }
+        }
+        if (useDisk) {
+            final File source = new File(filename);
+            final File file = entryFile(filename, key);
+            try {
+                final UCRBinary.Contents contents = UCRBinary.read(file, source.length(), source.lastModified());
+                if (contents != null) {
+                    // refresh the entry, so that it is the last one to be evicted from its directory
+                    file.setLastModified(System.currentTimeMillis());
+                    final Entry entry = new Entry(contents.table, contents.extra);
+                    synchronized (memory) {
+                        diskHits++;
+                        memory.put(key, entry);
+                    }
+                    return entry;
+                }
+            } catch (IOException e) {
+                System.err.println("[PROCESSED-CACHE] Could not read " + entryFile(filename, key) + ": " + e);
+            }
+        }
+        synchronized (memory) {
+            misses++;
+        }
+        return null;
+    }
+
+    /**
+     * @param filename UCR dataset file
+     * @param key      key from key(...)
+     * @param entry    result of processing the file
+     */
+    public void put(final String filename, final String key, final Entry entry) {
+        synchronized (memory) {
+            memory.put(key, entry);
+        }
+        if (useDisk) {
+            final File source = new File(filename);
+            final File file = entryFile(filename, key);
+            try {
+                UCRBinary.write(file, entry.table, entry.randomState, source.length(), source.lastModified());
+                evict(file.getParentFile(), maxDiskEntries);
+            } catch (IOException e) {
+                System.err.println("[PROCESSED-CACHE] Could not write " + file + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * Delete the least recently used entries of a processed directory until at most maxDiskEntries are left
+     */
+    private static void evict(final File directory, final int maxDiskEntries) {
+        final File[] entries = entries(directory);
+        if (entries.length <= maxDiskEntries)
+            return;
+        Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < entries.length - maxDiskEntries; i++) {
+            if (!entries[i].delete())
+                System.err.println("[PROCESSED-CACHE] Could not delete " + entries[i]);
+        }
+    }
+
+    /**
+     * Delete all the entries on disk under a directory, e.g. the root of the datasets,
+     * and the processed directories left empty
+     *
+     * @param root directory to search for processed directories
+     * @return number of entries deleted
+     */
+    public static int clearDisk(final File root) {
+        final File[] files = root.listFiles();
+        if (files == null)
+            return 0;
+        int deleted = 0;
+        for (final File file : files) {
+            if (!file.isDirectory())
+                continue;
+            if (file.getName().equals(DIRECTORY)) {
+                for (final File entry : entries(file)) {
+                    if (entry.delete())
+                        deleted++;
+                    else
+                        System.err.println("[PROCESSED-CACHE] Could not delete " + entry);
+                }
+                final String[] left = file.list();
+                if (left != null && left.length == 0)
+                    file.delete();
+            } else {
+                deleted += clearDisk(file);
+            }
+        }
+        return deleted;
+    }
+
+    private static File[] entries(final File directory) {
+        final File[] entries = directory.listFiles((dir, name) -> name.endsWith(UCRBinary.EXTENSION));
+        return entries == null ? new File[0] : entries;
+    }
+
+    public void clearMemory() {
+        synchronized (memory) {
+            memory.clear();
+        }
+    }
+
+    public void summary() {
+        synchronized (memory) {
+            System.out.println(String.format("[PROCESSED-CACHE] Memory hits: %d, disk hits: %d, misses: %d, entries in memory: %d",
+                    memoryHits, diskHits, misses, memory.size()));
+        }
+    }
+
+    private static File entryFile(final String filename, final String key) {
+        final File source = new File(filename);
+        return new File(new File(source.getAbsoluteFile().getParentFile(), DIRECTORY),
+                source.getName() + "." + key + UCRBinary.EXTENSION);
+    }
+}